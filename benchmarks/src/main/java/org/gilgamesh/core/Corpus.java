@@ -0,0 +1,146 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Reproducible synthetic corpus for the benchmarks: facts of a subject, a relation and an object, each drawn
+ * from a Zipfian distribution, so a few atoms are linked to most facts and most atoms to a few (as in natural
+ * language).
+ *
+ * @author Eduardo Alevi
+ */
+final class Corpus {
+
+	static final double EXPONENT = 1.1;
+	static final int RELATIONS = 64;
+
+	private final double subjects[];
+	private final double relations[];
+	private final double objects[];
+
+	/**
+	 * @param size The quantity of facts the corpus is meant for: the vocabulary grows with it.
+	 */
+	Corpus(int size) {
+
+		int vocabulary = Math.max(1000, size / 10);
+
+		this.subjects = distribution(vocabulary, EXPONENT);
+		this.relations = distribution(RELATIONS, EXPONENT);
+		this.objects = distribution(vocabulary * 4, EXPONENT);
+	}
+
+	/**
+	 * @return A memory reinforced with the informed quantity of facts (repeated facts included).
+	 */
+	Gilgamesh<String> memory(int size, long seed) {
+
+		return memory(new Gilgamesh<String>(), size, seed);
+	}
+
+	/**
+	 * @return A memory over a fact store, reinforced with the informed quantity of facts.
+	 */
+	Gilgamesh<String> memory(Gilgamesh<String> memory, int size, long seed) {
+
+		Random random = new Random(seed);
+
+		for (int i = 0; i < size; i++)
+			memory.reinforce(fact(random));
+
+		return memory;
+	}
+
+	/**
+	 * @return Facts drawn from the corpus, to be used in turn by a benchmark.
+	 */
+	String[][] facts(int count, long seed) {
+
+		Random random = new Random(seed);
+		String facts[][] = new String[count][];
+
+		for (int i = 0; i < count; i++)
+			facts[i] = fact(random);
+
+		return facts;
+	}
+
+	/**
+	 * @return Questions of a subject and an object drawn from the corpus.
+	 */
+	String[][] questions(int count, long seed) {
+
+		Random random = new Random(seed);
+		String questions[][] = new String[count][];
+
+		for (int i = 0; i < count; i++)
+			questions[i] = new String[] { "s" + draw(subjects, random), "o" + draw(objects, random) };
+
+		return questions;
+	}
+
+	/**
+	 * @return Questions of two subjects drawn from the corpus: no fact holds both, so they have no exact answer.
+	 */
+	String[][] misses(int count, long seed) {
+
+		Random random = new Random(seed);
+		String questions[][] = new String[count][];
+
+		for (int i = 0; i < count; i++) {
+			int subject = draw(subjects, random);
+			questions[i] = new String[] { "s" + subject, "s" + (subject + 1 + draw(subjects, random) % (subjects.length - 1)) % subjects.length };
+		}
+
+		return questions;
+	}
+
+	String[] fact(Random random) {
+
+		return new String[] { "s" + draw(subjects, random), "r" + draw(relations, random), "o" + draw(objects, random) };
+	}
+
+	/**
+	 * @return The cumulative distribution of the ranks 0 to size - 1, each one weighted by 1 / (rank + 1) ^ exponent.
+	 */
+	static double[] distribution(int size, double exponent) {
+
+		double cumulative[] = new double[size];
+		double sum = 0;
+
+		for (int i = 0; i < size; i++)
+			cumulative[i] = sum += 1 / Math.pow(i + 1, exponent);
+
+		for (int i = 0; i < size; i++)
+			cumulative[i] /= sum;
+
+		return cumulative;
+	}
+
+	static int draw(double cumulative[], Random random) {
+
+		int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+
+		return Math.min(rank < 0 ? -rank - 1 : rank, cumulative.length - 1);
+	}
+}
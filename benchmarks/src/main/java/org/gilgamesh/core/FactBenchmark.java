@@ -0,0 +1,71 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per answer costs of the facts: the suppression of the question atoms and the conversion into atoms.
+ *
+ * @author Eduardo Alevi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FactBenchmark {
+
+	private static final int FACTS = 1 << 12;
+
+	private Fact<String> facts[];
+	private int next;
+
+	@Setup
+	public void setup() {
+
+		facts = new Corpus(FACTS).memory(FACTS, 0).getFacts();
+	}
+
+	@Benchmark
+	public Fact<String> suppress() {
+
+		Fact<String> fact = facts[next++ % facts.length];
+
+		return fact.suppress(fact.atoms[0], fact.atoms[fact.atoms.length - 1]);
+	}
+
+	@Benchmark
+	public Atom<String>[] toAtoms() {
+
+		return facts[next++ % facts.length].toAtoms();
+	}
+}
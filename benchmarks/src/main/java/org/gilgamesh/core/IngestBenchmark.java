@@ -0,0 +1,166 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ingest throughput: facts of the corpus reinforced (or given a force) into a memory already holding the
+ * informed quantity of facts, by one thread and by several ones, or bulk loaded a batch at a time. The memory
+ * keeps its facts in the informed store: heap, columnar or mapped (in a temporary directory).
+ *
+ * @author Eduardo Alevi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestBenchmark {
+
+	private static final int FEED = 1 << 16;
+	private static final int BATCH = 1 << 10;
+
+	@Param({ "10000", "100000", "1000000" })
+	public int size;
+
+	@Param({ "heap", "columnar", "mapped" })
+	public String store;
+
+	private Corpus corpus;
+	private Gilgamesh<String> memory;
+	private MappedFactStore mapped;
+	private File directory;
+
+	/**
+	 * Facts fed by each thread, from its own seed.
+	 */
+	@State(Scope.Thread)
+	public static class Feed {
+
+		private static final AtomicInteger seeds = new AtomicInteger();
+
+		private String facts[][];
+		private int next;
+
+		@Setup
+		public void setup(IngestBenchmark benchmark) {
+
+			facts = benchmark.corpus.facts(FEED, seeds.incrementAndGet());
+		}
+
+		String[] next() {
+
+			return facts[next++ & (FEED - 1)];
+		}
+
+		String[][] batch() {
+
+			int from = next & (FEED - 1);
+
+			next += BATCH;
+			return Arrays.copyOfRange(facts, from, from + BATCH);
+		}
+	}
+
+	@Setup
+	public void setup() throws IOException {
+
+		corpus = new Corpus(size);
+
+		if (store.equals("mapped")) {
+			directory = Files.createTempDirectory("gilgamesh_").toFile();
+			memory = corpus.memory(new Gilgamesh<String>(mapped = new MappedFactStore(directory)), size, 0);
+		}
+		else
+			memory = corpus.memory(new Gilgamesh<String>(store.equals("columnar") ? new ColumnarFactStore() : new HeapFactStore()), size, 0);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+
+		if (mapped == null)
+			return;
+
+		mapped.close();
+
+		for (File file : directory.listFiles())
+			file.delete();
+
+		directory.delete();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void reinforce(Feed feed) {
+
+		memory.reinforce(feed.next());
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void reinforceThreads(Feed feed) {
+
+		memory.reinforce(feed.next());
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void fact(Feed feed) {
+
+		memory.fact(feed.next % 3 == 0 ? -0.5 : 0.25, feed.next());
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void factThreads(Feed feed) {
+
+		memory.fact(feed.next % 3 == 0 ? -0.5 : 0.25, feed.next());
+	}
+
+	/**
+	 * Loads a batch of facts at a time (compare with the reinforce of each one).
+	 */
+	@Benchmark
+	@Threads(1)
+	public long bulkLoad(Feed feed) {
+
+		return memory.bulkLoad(Arrays.asList(feed.batch()).iterator());
+	}
+}
@@ -0,0 +1,95 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The single most probable answer of the corpus questions (and of questions without an exact answer), and
+ * the memory statistics (kept as forces change, and computed again walking the memory).
+ *
+ * @author Eduardo Alevi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MemoryBenchmark {
+
+	private static final int QUESTIONS = 1 << 12;
+
+	@Param({ "10000", "100000", "1000000" })
+	public int size;
+
+	private Gilgamesh<String> memory;
+	private String questions[][];
+	private String misses[][];
+	private int next;
+
+	@Setup
+	public void setup() {
+
+		Corpus corpus = new Corpus(size);
+
+		memory = corpus.memory(size, 0);
+		questions = corpus.questions(QUESTIONS, 1);
+		misses = corpus.misses(QUESTIONS, 2);
+	}
+
+	@Benchmark
+	public Fact<String> answer() {
+
+		return memory.answer(questions[next++ & (QUESTIONS - 1)]);
+	}
+
+	/**
+	 * Questions without an exact answer: the best partial one is returned.
+	 */
+	@Benchmark
+	public Fact<String> answerMiss() {
+
+		return memory.answer(misses[next++ & (QUESTIONS - 1)]);
+	}
+
+	@Benchmark
+	public Statistics statistics() {
+
+		return memory.statistics();
+	}
+
+	@Benchmark
+	public Statistics statisticsRecompute() {
+
+		return memory.statistics(true);
+	}
+}
@@ -0,0 +1,99 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Snapshot costs: the save of a memory, its full load and its lazy open (up to the first answer).
+ *
+ * @author Eduardo Alevi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PersistenceBenchmark {
+
+	@Param({ "100000", "1000000" })
+	public int size;
+
+	private Gilgamesh<String> memory;
+	private File snapshot;
+	private File target;
+	private String question[];
+
+	@Setup
+	public void setup() throws IOException {
+
+		Corpus corpus = new Corpus(size);
+
+		memory = corpus.memory(size, 0);
+		question = corpus.questions(1, 1)[0];
+		snapshot = File.createTempFile("gilgamesh_", ".dat");
+		target = File.createTempFile("gilgamesh_", ".dat");
+
+		if (!Gilgamesh.save(snapshot, memory))
+			throw new IOException("The snapshot was not saved.");
+	}
+
+	@TearDown
+	public void tearDown() {
+
+		snapshot.delete();
+		target.delete();
+	}
+
+	@Benchmark
+	public boolean save() {
+
+		return Gilgamesh.save(target, memory);
+	}
+
+	@Benchmark
+	public Gilgamesh<String> load() {
+
+		return Gilgamesh.<String>load(snapshot);
+	}
+
+	@Benchmark
+	public Fact<String> open() throws IOException {
+
+		try (SnapshotFactStore store = new SnapshotFactStore(snapshot)) {
+			return new Gilgamesh<String>(store).answer(question);
+		}
+	}
+}
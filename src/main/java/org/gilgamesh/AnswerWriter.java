@@ -0,0 +1,276 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.DecimalFormatSymbols;
+import java.util.Formatter;
+import java.util.Locale;
+
+import org.gilgamesh.core.Fact;
+
+/**
+ * Writes the shell answers: each one is formatted in a reused line, and lines are kept in a buffer, written
+ * when full and on {@link #flush()}.
+ *
+ * Formats:
+ * <ul>
+ * <li>text: as {@link Fact#toString()}, and the atoms alone for questions;</li>
+ * <li>tsv: force, time and atoms, separated by tabs (tabs, line breaks and backslashes escaped);</li>
+ * <li>jsonl: an object with force, time and atoms per line.</li>
+ * </ul>
+ *
+ * @author Eduardo Alevi
+ */
+class AnswerWriter implements Closeable {
+
+	static enum Format {
+		TEXT, TSV, JSONL
+	};
+
+	private static final int BUFFER = 1 << 16;
+	private static final double DIGITS = 1e8;
+
+	private final OutputStream output;
+	private final Writer writer;
+	private final StringBuilder line = new StringBuilder();
+	private final Formatter formatter = new Formatter(line);
+	private final char decimal;
+	private final boolean plain;
+	private char chars[] = new char[256];
+	private Format format = Format.TEXT;
+
+
+	AnswerWriter(OutputStream output) {
+
+		DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT));
+
+		this.output = output;
+		this.writer = new OutputStreamWriter(new BufferedOutputStream(output, BUFFER));
+		this.decimal = symbols.getDecimalSeparator();
+		this.plain = symbols.getZeroDigit() == '0';
+	}
+
+	Format getFormat() {
+
+		return format;
+	}
+
+	void setFormat(Format format) {
+
+		this.format = format;
+	}
+
+	/**
+	 * Writes an answer fact.
+	 */
+	void write(Fact<?> fact) throws IOException {
+
+		switch (format) {
+		case TSV:
+			tsv(fact);
+			break;
+		case JSONL:
+			json(fact);
+			break;
+		default:
+			line.append("[ ").append(fact.time).append(": ");
+			force(fact.getForce());
+			line.append(" = ");
+
+			for (Object atom : fact.atoms)
+				line.append(atom).append(' ');
+
+			line.append(']');
+		}
+
+		end();
+	}
+
+	/**
+	 * Writes the answer to a question: its atoms alone, as text.
+	 */
+	void writeAtoms(Fact<?> fact) throws IOException {
+
+		if (format != Format.TEXT) {
+			write(fact);
+			return;
+		}
+
+		for (Object atom : fact.atoms)
+			line.append(atom).append(' ');
+
+		if (fact.atoms.length > 0)
+			end();
+	}
+
+	/**
+	 * Writes a line of text, as is, whatever the format.
+	 */
+	void write(String text) throws IOException {
+
+		line.append(text);
+		end();
+	}
+
+	void flush() throws IOException {
+
+		writer.flush();
+	}
+
+	/**
+	 * Flushes the answers, and closes the output.
+	 */
+	@Override
+	public void close() throws IOException {
+
+		writer.close();
+	}
+
+	/**
+	 * @return The output written.
+	 */
+	OutputStream getOutput() {
+
+		return output;
+	}
+
+	/**
+	 * Writes the line, reusing its chars.
+	 */
+	private void end() throws IOException {
+
+		line.append('\n');
+
+		if (chars.length < line.length())
+			chars = new char[Math.max(line.length(), chars.length * 2)];
+
+		line.getChars(0, line.length(), chars, 0);
+		writer.write(chars, 0, line.length());
+		line.setLength(0);
+	}
+
+	/**
+	 * Appends a force as <i>%.8f</i> does. Forces of up to 8 binary places (the sums of whole and half forces,
+	 * for instance) are exact in 8 decimal places, so their digits are appended as they are.
+	 */
+	private void force(double force) {
+
+		double digits = force * DIGITS;
+
+		if (!plain || Math.abs(force) >= 1L << 26 || force * 256 != Math.rint(force * 256) || (force == 0 && 1 / force < 0)) {
+			formatter.format("%.8f", force);
+			return;
+		}
+
+		long value = (long) digits;
+		long fraction = Math.abs(value % (long) DIGITS);
+
+		if (value < 0)
+			line.append('-');
+
+		line.append(Math.abs(value / (long) DIGITS)).append(decimal);
+
+		for (long place = (long) DIGITS / 10; place > fraction && place > 1; place /= 10)
+			line.append('0');
+
+		line.append(fraction);
+	}
+
+	private void tsv(Fact<?> fact) {
+
+		line.append(fact.getForce()).append('\t').append(fact.time);
+
+		for (Object atom : fact.atoms) {
+
+			String value = atom.toString();
+			line.append('\t');
+
+			for (int i = 0; i < value.length(); i++) {
+
+				char current = value.charAt(i);
+
+				if (current == '\t')
+					line.append("\\t");
+				else if (current == '\n')
+					line.append("\\n");
+				else if (current == '\r')
+					line.append("\\r");
+				else if (current == '\\')
+					line.append("\\\\");
+				else
+					line.append(current);
+			}
+		}
+	}
+
+	private void json(Fact<?> fact) {
+
+		double force = fact.getForce();
+
+		line.append("{\"force\":");
+
+		if (Double.isNaN(force) || Double.isInfinite(force))
+			line.append("null");
+		else
+			line.append(force);
+
+		line.append(",\"time\":").append(fact.time).append(",\"atoms\":[");
+
+		for (int a = 0; a < fact.atoms.length; a++) {
+
+			String value = fact.atoms[a].toString();
+
+			if (a > 0)
+				line.append(',');
+
+			line.append('"');
+
+			for (int i = 0; i < value.length(); i++) {
+
+				char current = value.charAt(i);
+
+				if (current == '"' || current == '\\')
+					line.append('\\').append(current);
+				else if (current == '\n')
+					line.append("\\n");
+				else if (current == '\r')
+					line.append("\\r");
+				else if (current == '\t')
+					line.append("\\t");
+				else if (current < 0x20) {
+					line.append("\\u00");
+					line.append(Character.forDigit(current >> 4, 16)).append(Character.forDigit(current & 0xf, 16));
+				}
+				else
+					line.append(current);
+			}
+
+			line.append('"');
+		}
+
+		line.append("]}");
+	}
+}
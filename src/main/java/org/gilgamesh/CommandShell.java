@@ -19,41 +19,56 @@
 
 package org.gilgamesh;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import java.util.Scanner;
-import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.gilgamesh.core.Atom;
+import org.gilgamesh.core.BulkLoader;
 import org.gilgamesh.core.Fact;
 import org.gilgamesh.core.Gilgamesh;
+import org.gilgamesh.core.MetricsRegistry;
+import org.gilgamesh.core.SnapshotProgress;
 
 @SuppressWarnings("unchecked")
 public class CommandShell {
 
 	private Gilgamesh<String> gilgamesh = new Gilgamesh<String>();
+	
+	/**
+	 * Outputs of the scripts running (a script may run another one).
+	 */
+	private final Deque<AnswerWriter> outputs = new ArrayDeque<AnswerWriter>();
 	private static final String PROMPT = "gilgamesh: ";
 	private static final String SINTAXE[] = { ";", "?", " ", "'", "#", "?-" };
 
 
 	private static enum Command {
 		UNKNOWN, COMMENT, LINKS, HELP, EXIT, RESET, ATOMS, ENTRY, REINFORCE, PUNISH, FACT, FACTS, REMOVE, QUESTION, 
-		QUESTION_SUB, SCRIPT, LOAD, SAVE, DONE, ANSWER, /*ANSWERALL,*/ ANSWERANY, ANSWERSUPP, ANSWERDIST, STATISTICS, ECHO, VERSION;
+		QUESTION_SUB, SCRIPT, LOAD, SAVE, DONE, ANSWER, /*ANSWERALL,*/ ANSWERANY, ANSWERSUPP, ANSWERDIST, STATISTICS, METRICS, ECHO, VERSION,
+		FORMAT;
 	};
 
 
 	public CommandShell(String param) {
 
 		printHeader();
+		MetricsRegistry.getGlobal().publish("org.gilgamesh");
 
 		if (param == null || "".equals(param.trim()))
-			shellLoop(System.in, System.out, -1);
+			shellLoop(System.in, new AnswerWriter(System.out));
 		else
 			runScript("script;" + param);
 	}
@@ -66,19 +81,14 @@ public class CommandShell {
 		System.out.printf("%s\n\nWelcome to Gilgamesh command shell!\nType \"help;\" followed by <ENTER> to see command line help.\n\n", gnu);
 	}
 
-	private void shellLoop(InputStream input, OutputStream output, int total) {
+	private void shellLoop(InputStream input, AnswerWriter output) {
 
-		int counter = 0;
 		Scanner scanner = new Scanner(input);
 		Command command = null;
-		String params[];
 
 		while (command != Command.DONE)
 			try {
-				if (total > 0)
-					System.out.printf("Progress: %.2f%%\r", (counter++ / (double) total) * 100.0);
-				else
-					System.out.printf(PROMPT);
+				System.out.printf(PROMPT);
 
 				String line = scanner.hasNextLine() ? scanner.nextLine() : Command.DONE.name().toLowerCase() + SINTAXE[0];
 
@@ -89,132 +99,245 @@ public class CommandShell {
 																// console
 																// output.
 				command = getCommand(line);
+				execute(command, line, input, output);
+			}
+			catch (Exception e) {
+				e.printStackTrace();
+				System.err.println("\nAn unexpected error has occurred. Please, copy this error and send it to contact@gilgamesh-ai.org\nThank you.");
+			}
+
+		scanner.close();
+	}
+
+	/**
+	 * Runs a script file. Lines are read and parsed by another thread, ahead, and run in order: entries in a
+	 * row are loaded in bulk, and stored before the next command (a question, for instance) runs.
+	 */
+	private void scriptLoop(FileInputStream input, AnswerWriter output) throws IOException {
+
+		long total = Math.max(1, input.getChannel().size());
+		ScriptReader reader = new ScriptReader(input);
+		Thread thread = new Thread(reader, "gilgamesh-script");
+		BulkLoader<String> loader = null;
+		Command command = null;
+		long shown = -1;
+
+		thread.setDaemon(true);
+		thread.start();
+
+		try {
+			while (command != Command.DONE) {
+
+				for (Line line : reader.take()) {
+
+					if (command == Command.DONE)
+						break;
 
-				switch (command) {
-				case HELP:
-					printHelp();
-					break;
-				case EXIT:
-					System.out.println("\nThanks for using Gilgamesh!\nExiting program...\n");
-					System.exit(0);
-					break;
-				case RESET:
-					gilgamesh = new Gilgamesh<String>();
-					System.gc();
-					System.out.println("Memory erased.");
-					break;
-				case SCRIPT:
-					runScript(line);
-					break;
-				case SAVE:
-					save(line);
-					break;
-				case LOAD:
-					load(line);
-					break;
-				case ATOMS:
-					for (Atom<String> atom : gilgamesh.getAtoms())
-						System.out.printf("%s, ", atom);
-					System.out.println();
-					break;
-				case FACTS:
-					for (Fact<String> fact : gilgamesh.getFacts())
-						System.out.println(fact);
-					break;
-				case REMOVE:
-					gilgamesh.remove(getBlocks(line.substring(line.indexOf(SINTAXE[0]) + 1, line.length())));
-					break;
-				case ANSWER:
-					for (Fact<String> current : gilgamesh.getAnswers(false, false, getBlocks(line.substring(line.indexOf(SINTAXE[0]) + 1, line.length()))))
-						output.write((current.toString() + "\n").getBytes());
-					output.flush();
-					break;
-				/*
-				case ANSWERALL:
-					for (Fact<String> current : gilgamesh.getAnswersFixed(false, getBlocks(line.substring(line.indexOf(SINTAXE[0]) + 1, line.length()))))
-						output.write((current.toString() + "\n").getBytes());
-					output.flush();
-					break;
-				*/
-				case ANSWERANY:
-					for (Fact<String> current : gilgamesh.getAnswers(true, false, getBlocks(line.substring(line.indexOf(SINTAXE[0]) + 1, line.length()))))
-						output.write((current.toString() + "\n").getBytes());
-					output.flush();
-					break;
-				case ANSWERSUPP:
-					for (Fact<String> current : gilgamesh.getAnswers(false, true, getBlocks(line.substring(line.indexOf(SINTAXE[0]) + 1, line.length()))))
-						output.write((current.toString() + "\n").getBytes());
-					output.flush();
-					break;
-				case ANSWERDIST:
-					for (Fact<String> current : gilgamesh.getAnswers(true, true, getBlocks(line.substring(line.indexOf(SINTAXE[0]) + 1, line.length()))))
-						output.write((current.toString() + "\n").getBytes());
-					output.flush();
-					break;
-				case QUESTION:
-					output.write(stream(gilgamesh.answer(getBlocks(line.substring(0, line.length() - 1))).toAtoms()).getBytes());
-					output.flush();
-					break;
-				case QUESTION_SUB:
-					showSubQuestion(output, line);
-					break;
-				case FACT:
 					try {
-						params = getParameters(line);
-						double force = Double.parseDouble(params[0]);
-						gilgamesh.fact(force, getBlocks(params[1]));
+						command = line.command;
+
+						if (command == Command.COMMENT)
+							continue;
+
+						if (line.atoms != null) {
+
+							if (loader == null)
+								loader = gilgamesh.bulkLoader();
+
+							loader.fact(line.force, line.atoms);
+							continue;
+						}
+
+						if (loader != null) {
+							loader.close();
+							loader = null;
+						}
+
+						// The input is closed: its reader stops, quietly.
+						if (command == Command.DONE)
+							reader.stop();
+
+						execute(command, line.text, input, output);
 					}
 					catch (Exception e) {
-						System.out.println("Invalid parameters.");
+						e.printStackTrace();
+						System.err.println("\nAn unexpected error has occurred. Please, copy this error and send it to contact@gilgamesh-ai.org\nThank you.");
 					}
-					break;
-				case PUNISH:
-					gilgamesh.punish(getBlocks(getParameters(line)[0]));
-					break;
-				case REINFORCE:
-					gilgamesh.reinforce(getBlocks(getParameters(line)[0]));
-					break;
-				case ENTRY:
-					gilgamesh.reinforce(getBlocks(line));
-					break;
-				case DONE:
-					System.out.println("Processing done.   ");
-					if (output instanceof FileOutputStream)
-						output.close();
-					input.close();
-					break;
-				case STATISTICS:
-					output.write((gilgamesh.statistics().toString() + "\n").getBytes());
-					output.flush();
-					break;
-				case ECHO:
-					output.write((line.substring(line.indexOf(SINTAXE[0]) + 1, line.length()) + "\n").getBytes());
-					output.flush();
-					break;
-				case COMMENT: // bypass
-					break;
-				case LINKS:
-					for (Atom<String> atom : gilgamesh.getAtoms())
-						System.out.printf("%10d : %s\n", atom.getFacts().size(), atom.toString());
-					break;
-				case VERSION:
-					System.out.printf("Version: %s\n", Gilgamesh.getVersion());
-					break;
-				case UNKNOWN:
-				default:
-					System.out.println("Command not recognized.");
 				}
 
+				long progress = reader.position * 10000 / total;
+
+				if (progress != shown && command != Command.DONE)
+					System.out.printf("Progress: %.2f%%\r", (shown = progress) / 100.0);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			// A script may be done before its end: its reader is stopped.
+			reader.stop();
+			thread.interrupt();
+
+			try {
+				thread.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			if (loader != null)
+				loader.close();
+
+			if (command != Command.DONE)
+				output.flush();
+		}
+	}
+
+	/**
+	 * Runs a command. Answers are written to the console at once, and to a file when it is full or done.
+	 */
+	private void execute(Command command, String line, InputStream input, AnswerWriter output) throws IOException {
+
+		String params[];
+
+		switch (command) {
+		case HELP:
+			printHelp();
+			break;
+		case EXIT:
+			System.out.println("\nThanks for using Gilgamesh!\nExiting program...\n");
+			
+			// Answers buffered for the script files are written before exiting.
+			output.flush();
+			for (AnswerWriter script : outputs)
+				script.flush();
+			
+			System.exit(0);
+			break;
+		case RESET:
+			gilgamesh = new Gilgamesh<String>();
+			System.gc();
+			System.out.println("Memory erased.");
+			break;
+		case SCRIPT:
+			runScript(line);
+			break;
+		case SAVE:
+			save(line);
+			break;
+		case LOAD:
+			load(line);
+			break;
+		case ATOMS:
+			for (Atom<String> atom : gilgamesh.getAtoms())
+				System.out.printf("%s, ", atom);
+			System.out.println();
+			break;
+		case FACTS:
+			for (Fact<String> fact : gilgamesh.getFacts())
+				System.out.println(fact);
+			break;
+		case REMOVE:
+			gilgamesh.remove(getBlocks(line.substring(line.indexOf(SINTAXE[0]) + 1, line.length())));
+			break;
+		case ANSWER:
+			for (Fact<String> current : gilgamesh.getAnswers(false, false, getBlocks(line.substring(line.indexOf(SINTAXE[0]) + 1, line.length()))))
+				output.write(current);
+			break;
+		/*
+		case ANSWERALL:
+			for (Fact<String> current : gilgamesh.getAnswersFixed(false, getBlocks(line.substring(line.indexOf(SINTAXE[0]) + 1, line.length()))))
+				output.write((current.toString() + "\n").getBytes());
+			output.flush();
+			break;
+		*/
+		case ANSWERANY:
+			for (Fact<String> current : gilgamesh.getAnswers(true, false, getBlocks(line.substring(line.indexOf(SINTAXE[0]) + 1, line.length()))))
+				output.write(current);
+			break;
+		case ANSWERSUPP:
+			for (Fact<String> current : gilgamesh.getAnswers(false, true, getBlocks(line.substring(line.indexOf(SINTAXE[0]) + 1, line.length()))))
+				output.write(current);
+			break;
+		case ANSWERDIST:
+			for (Fact<String> current : gilgamesh.getAnswers(true, true, getBlocks(line.substring(line.indexOf(SINTAXE[0]) + 1, line.length()))))
+				output.write(current);
+			break;
+		case QUESTION:
+			output.writeAtoms(gilgamesh.answer(getBlocks(line.substring(0, line.length() - 1))));
+			break;
+		case QUESTION_SUB:
+			showSubQuestion(output, line);
+			break;
+		case FACT:
+			try {
+				params = getParameters(line);
+				double force = Double.parseDouble(params[0]);
+				gilgamesh.fact(force, getBlocks(params[1]));
 			}
 			catch (Exception e) {
-				e.printStackTrace();
-				System.err.println("\nAn unexpected error has occurred. Please, copy this error and send it to contact@gilgamesh-ai.org\nThank you.");
+				System.out.println("Invalid parameters.");
 			}
+			break;
+		case PUNISH:
+			gilgamesh.punish(getBlocks(getParameters(line)[0]));
+			break;
+		case REINFORCE:
+			gilgamesh.reinforce(getBlocks(getParameters(line)[0]));
+			break;
+		case ENTRY:
+			gilgamesh.reinforce(getBlocks(line));
+			break;
+		case DONE:
+			System.out.println("Processing done.   ");
+			if (output.getOutput() instanceof FileOutputStream)
+				output.close();
+			else
+				output.flush();
+			input.close();
+			break;
+		case STATISTICS:
+			output.write(gilgamesh.statistics().toString());
+			break;
+		case METRICS:
+			output.write(gilgamesh.getMetrics().toString());
+			break;
+		case ECHO:
+			output.write(line.substring(line.indexOf(SINTAXE[0]) + 1, line.length()));
+			break;
+		case FORMAT:
+			format(output, getParameters(line));
+			break;
+		case COMMENT: // bypass
+			break;
+		case LINKS:
+			for (Atom<String> atom : gilgamesh.getAtoms())
+				System.out.printf("%10d : %s\n", atom.getFacts().size(), atom.toString());
+			break;
+		case VERSION:
+			System.out.printf("Version: %s\n", Gilgamesh.getVersion());
+			break;
+		case UNKNOWN:
+		default:
+			System.out.println("Command not recognized.");
+		}
 
-		scanner.close();
+		if (command != Command.DONE && !(output.getOutput() instanceof FileOutputStream))
+			output.flush();
+	}
+
+	private void format(AnswerWriter output, String params[]) {
+
+		try {
+			output.setFormat(AnswerWriter.Format.valueOf(params[0].toUpperCase()));
+		}
+		catch (Exception e) {
+			System.out.println("Invalid format (text, tsv or jsonl).");
+		}
 	}
 
-	private Command getCommand(String line) {
+	private static Command getCommand(String line) {
 
 		if (line == null || "".equals(line.trim()))
 			return Command.UNKNOWN;
@@ -240,46 +363,49 @@ public class CommandShell {
 
 	private Atom<String>[] getBlocks(String line) {
 
-		ArrayList<Atom<String>> blocks = new ArrayList<Atom<String>>();
-		String buffer = "";
+		String values[] = getValues(line);
+		Atom<String> blocks[] = new Atom[values.length];
+
+		for (int i = 0; i < values.length; i++)
+			blocks[i] = Atom.of(values[i]);
+
+		return blocks;
+	}
+
+	/**
+	 * Splits a line in atoms: by spaces, or by quotes around atoms with spaces.
+	 */
+	private static String[] getValues(String line) {
+
+		ArrayList<String> values = new ArrayList<String>();
+		char quote = SINTAXE[3].charAt(0);
+		char space = SINTAXE[2].charAt(0);
+		int start = 0;
 
 		boolean split = false;
 		boolean last = split;
 
+		// The atom in course is the line from start: quotes and spaces outside quotes end it.
 		for (int i = 0; i < line.length(); i++) {
 			char current = line.charAt(i);
-			if (SINTAXE[3].equals("" + current))
+			if (current == quote)
 				split = !split;
 
-			if (last != split || (!split && SINTAXE[2].equals("" + current))) {
-				if (!"".equals(buffer))
-					blocks.add(Atom.of(buffer));
-				buffer = "";
+			if (last != split || (!split && current == space)) {
+				if (i > start)
+					values.add(line.substring(start, i));
+				start = i + 1;
 				last = split;
-				continue;
 			}
-
-			buffer += current;
 		}
 
-		if (!"".equals(buffer))
-			blocks.add(Atom.of(buffer));
-
-		return blocks.toArray(new Atom[0]);
-	}
-
-	private String stream(Atom<String> blocks[]) {
-
-		if (blocks == null || blocks.length <= 0)
-			return "";
+		if (line.length() > start)
+			values.add(line.substring(start));
 
-		String answer = "";
-		for (Atom<String> current : blocks)
-			answer += current + " ";
-		return answer + "\n";
+		return values.toArray(new String[values.size()]);
 	}
 
-	private String[] getParameters(String line) {
+	private static String[] getParameters(String line) {
 
 		StringTokenizer token = new StringTokenizer(line, SINTAXE[0]);
 		token.nextToken(); // bypass the command
@@ -292,15 +418,13 @@ public class CommandShell {
 		return params.toArray(new String[0]);
 	}
 
-	private void showSubQuestion(OutputStream output, String line) throws IOException {
+	private void showSubQuestion(AnswerWriter output, String line) throws IOException {
 
 		Atom<String> blocks[] = getBlocks(line.substring(0, line.length() - 2));
-		Set<Fact<String>> answers = gilgamesh.getAnswers(false, true, blocks);
+		List<Fact<String>> answers = gilgamesh.topAnswers(1, false, true, blocks);
 
-		if (answers.size() > 0) {
-			output.write(stream(answers.iterator().next().toAtoms()).getBytes());
-			output.flush();
-		}
+		if (answers.size() > 0)
+			output.writeAtoms(answers.get(0));
 	}
 
 	private void printHelp() {
@@ -327,9 +451,12 @@ public class CommandShell {
 		System.out.println("answersupp;<atoms>\tGet all answers, matching all atoms, but suppressing the question atoms.");
 		System.out.println("answerdist;<atoms>\tGet all answers, matching any atom, but suppressing the question atoms.");
 		System.out.println("script;<IN>;<OUT>\tRead the <IN> script file and answer in <OUT> text file (optional).");
+		System.out.println("script;<IN>;<OUT>;<F>\tAs above, answering in the <F> format (text, tsv or jsonl).");
+		System.out.println("format;<F>\t\tAnswer in the <F> format: text (default), tsv or jsonl.");
 		System.out.println("save;<OUT>\t\tSave the Gilgamesh Core memory in a binary file.");
 		System.out.println("load;<IN>\t\tLoad the Gilgamesh Core memory from a binary file.");
 		System.out.println("statistics;\t\tShow Gilgamesh Core statistics.");
+		System.out.println("metrics;\t\tShow Gilgamesh Core metrics: counters, latencies (ns) and sizes (also in JMX).");
 		System.out.println("echo;<atoms>\t\tPrint atoms in the console (or output file).");
 		System.out.println("---------------------------------------------------------------------------------------------\n");
 	}
@@ -354,22 +481,24 @@ public class CommandShell {
 				return;
 			}
 
-			int total = 0;
-			Scanner scanner = new Scanner(in);
-			while (scanner.hasNextLine()) {
-				total++;
-				scanner.nextLine();
-			}
-			scanner.close();
-
-			OutputStream output;
+			AnswerWriter output;
 
-			if (params.length > 1)
-				output = new FileOutputStream(new File(params[1]));
+			if (params.length > 1 && !"".equals(params[1]))
+				output = new AnswerWriter(new FileOutputStream(new File(params[1])));
 			else
-				output = System.out;
+				output = new AnswerWriter(System.out);
 
-			shellLoop(new FileInputStream(in), output, total);
+			if (params.length > 2)
+				format(output, new String[] { params[2] });
+
+			outputs.push(output);
+
+			try {
+				scriptLoop(new FileInputStream(in), output);
+			}
+			finally {
+				outputs.remove(output);
+			}
 		}
 		catch (Exception e) {
 			e.printStackTrace();
@@ -397,7 +526,10 @@ public class CommandShell {
 				return;
 			}
 
-			Gilgamesh.save(file, gilgamesh);
+			SnapshotProgress progress = gilgamesh.snapshot(file);
+
+			progress.await();
+			System.out.println(progress);
 		}
 		catch (Exception e) {
 			e.printStackTrace();
@@ -445,4 +577,138 @@ public class CommandShell {
 			all += curr + SINTAXE[0];
 		new CommandShell(all);
 	}
+
+	/**
+	 * A script line, parsed. Entries have their atoms and force.
+	 */
+	private static final class Line {
+
+		private final Command command;
+		private final String text;
+		private final String atoms[];
+		private final double force;
+
+		private Line(Command command, String text, String atoms[], double force) {
+
+			this.command = command;
+			this.text = text;
+			this.atoms = atoms;
+			this.force = force;
+		}
+
+		/**
+		 * Lines which cannot be parsed are run as given, so their errors show in order.
+		 */
+		private static Line parse(String text) {
+
+			Command command = getCommand(text);
+			String atoms[] = null;
+			double force = 1.0;
+
+			try {
+				switch (command) {
+				case ENTRY:
+					atoms = getValues(text);
+					break;
+				case REINFORCE:
+					atoms = getValues(getParameters(text)[0]);
+					break;
+				case PUNISH:
+					atoms = getValues(getParameters(text)[0]);
+					force = -1.0;
+					break;
+				case FACT:
+					String params[] = getParameters(text);
+					force = Double.parseDouble(params[0]);
+					atoms = getValues(params[1]);
+					break;
+				default:
+				}
+			}
+			catch (RuntimeException e) {
+				atoms = null;
+			}
+
+			return new Line(command, text, atoms != null && atoms.length > 0 ? atoms : null, force);
+		}
+	}
+
+	/**
+	 * Reads and parses the lines of a script, in chunks, through a bounded queue. Its end is a <i>done</i> line.
+	 */
+	private static final class ScriptReader implements Runnable {
+
+		private static final int CHUNK = 1024;
+		private static final int CHUNKS = 64;
+
+		private final BlockingQueue<List<Line>> queue = new ArrayBlockingQueue<List<Line>>(CHUNKS);
+		private final FileInputStream input;
+
+		/**
+		 * Bytes of the file read up to the last chunk queued.
+		 */
+		private volatile long position;
+
+		/**
+		 * Indicates that the script is done before its end: its input is closed.
+		 */
+		private volatile boolean stopped;
+
+		private ScriptReader(FileInputStream input) {
+
+			this.input = input;
+		}
+
+		@Override
+		public void run() {
+
+			List<Line> chunk = new ArrayList<Line>(CHUNK);
+
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(input), 1 << 16)) {
+
+				String text;
+
+				while ((text = reader.readLine()) != null) {
+
+					if ("".equals(text = text.trim()))
+						continue;
+
+					chunk.add(Line.parse(text));
+
+					if (chunk.size() == CHUNK) {
+						position = input.getChannel().position();
+						queue.put(chunk);
+						chunk = new ArrayList<Line>(CHUNK);
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+			catch (IOException e) {
+				if (stopped)
+					return;
+
+				e.printStackTrace();
+			}
+
+			try {
+				chunk.add(new Line(Command.DONE, Command.DONE.name().toLowerCase() + SINTAXE[0], null, 0));
+				queue.put(chunk);
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+		}
+
+		private void stop() {
+
+			stopped = true;
+		}
+
+		private List<Line> take() throws InterruptedException {
+
+			return queue.take();
+		}
+	}
 }
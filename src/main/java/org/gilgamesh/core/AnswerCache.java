@@ -0,0 +1,311 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded cache of answers, by question: the question atom codes (sorted, so the order of the values does not
+ * matter), the quantity of answers asked and the matchAny and suppress flags. Hits are lock free, and evict by
+ * the CLOCK policy, as {@link ClockCache} does: the weight of an entry is the quantity of answers it holds.
+ *
+ * A fact written invalidates the entries whose question atoms it holds, only. Each atom has a stamp (in stripes),
+ * increased on invalidation: an entry is kept only if the stamps of its atoms did not change while it was
+ * answered, so an answer missing a concurrent write is never cached.
+ *
+ * @author Eduardo Alevi
+ */
+final class AnswerCache {
+
+	private static final int STRIPES = 1024;
+
+	private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+	private final ConcurrentHashMap<Integer, Set<Key>> dependents = new ConcurrentHashMap<Integer, Set<Key>>();
+	private final AtomicLongArray stamps = new AtomicLongArray(STRIPES);
+	private final ArrayDeque<Entry> ring = new ArrayDeque<Entry>();
+	private final long capacity;
+	private long weight;
+
+
+	/**
+	 * @param capacity The quantity of answers kept.
+	 */
+	AnswerCache(long capacity) {
+
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @param codes The codes of the question values, in order.
+	 * @param size The quantity of answers asked (0 for all of them).
+	 * @return The key of the question, or null if a value is not an atom of the memory (it is not cached).
+	 */
+	static Key key(int codes[], int size, boolean matchAny, boolean suppress) {
+
+		int sorted[] = codes.clone();
+
+		Arrays.sort(sorted);
+
+		if (sorted.length == 0 || sorted[0] < 0)
+			return null;
+
+		return new Key(sorted, size, matchAny, suppress);
+	}
+
+	/**
+	 * @return The answers of the question, or null if not cached.
+	 */
+	Object get(Key key) {
+
+		Entry entry = entries.get(key);
+
+		if (entry == null)
+			return null;
+
+		// A lost mark spares one entry less, nothing else.
+		entry.referenced = true;
+		return entry.answers;
+	}
+
+	/**
+	 * @return The stamp of the question atoms, to be informed on {@link #put(Key, long, Object, long)}.
+	 */
+	long stamp(Key key) {
+
+		long stamp = 0;
+
+		for (int code : key.codes)
+			stamp += stamps.get(code & (STRIPES - 1));
+
+		return stamp;
+	}
+
+	/**
+	 * Caches the answers of a question, if no fact holding its atoms was written since the stamp was taken.
+	 *
+	 * @return The quantity of entries evicted.
+	 */
+	synchronized int put(Key key, long stamp, Object answers, long weight) {
+
+		Entry entry = new Entry(key, answers, weight + 1);
+
+		for (int code : key.codes)
+			dependents.computeIfAbsent(code, c -> ConcurrentHashMap.newKeySet()).add(key);
+
+		// Writers raise the stamps before they invalidate: either they find the entry, or it is dropped here.
+		Entry former = entries.put(key, entry);
+
+		if (former != null)
+			this.weight -= former.weight;
+
+		if (stamp(key) != stamp) {
+			entries.remove(key, entry);
+			unregister(key);
+			return 0;
+		}
+
+		this.weight += entry.weight;
+		ring.add(entry);
+
+		int evicted = 0;
+
+		while (this.weight > capacity && !ring.isEmpty()) {
+
+			Entry candidate = ring.poll();
+
+			if (entries.get(candidate.key) != candidate)
+				continue;
+
+			if (candidate.referenced) {
+				candidate.referenced = false;
+				ring.add(candidate);
+			}
+			else {
+				remove(candidate);
+				evicted++;
+			}
+		}
+
+		// Entries invalidated are left in the ring: they are dropped once they are many.
+		if (ring.size() > 2 * entries.size() + 64)
+			ring.removeIf(current -> entries.get(current.key) != current);
+
+		return evicted;
+	}
+
+	/**
+	 * Invalidates the entries whose question atoms are held by a fact written.
+	 *
+	 * @param codes The atom codes of the fact.
+	 * @return The quantity of entries invalidated.
+	 */
+	int invalidate(int codes[]) {
+
+		boolean cached = false;
+
+		for (int code : codes) {
+			stamps.incrementAndGet(code & (STRIPES - 1));
+			Set<Key> keys = dependents.get(code);
+			cached |= keys != null && !keys.isEmpty();
+		}
+
+		if (!cached)
+			return 0;
+
+		int invalidated = 0;
+
+		synchronized (this) {
+			for (int code : codes) {
+
+				Set<Key> keys = dependents.get(code);
+
+				if (keys == null)
+					continue;
+
+				for (Key key : keys.toArray(new Key[keys.size()])) {
+
+					Entry entry = entries.get(key);
+
+					if (entry != null) {
+						remove(entry);
+						invalidated++;
+					}
+					else
+						unregister(key);
+				}
+			}
+		}
+
+		return invalidated;
+	}
+
+	/**
+	 * Invalidates the entries whose question atoms are held by a fact of the store.
+	 */
+	int invalidate(FactStore store, long id) {
+
+		int codes[] = new int[store.length(id)];
+
+		for (int i = 0; i < codes.length; i++)
+			codes[i] = store.code(id, i);
+
+		return invalidate(codes);
+	}
+
+	/**
+	 * Invalidates all entries.
+	 */
+	synchronized void clear() {
+
+		for (int i = 0; i < STRIPES; i++)
+			stamps.incrementAndGet(i);
+
+		entries.clear();
+		dependents.clear();
+		ring.clear();
+		weight = 0;
+	}
+
+	synchronized long weight() {
+
+		return weight;
+	}
+
+	int size() {
+
+		return entries.size();
+	}
+
+	private void remove(Entry entry) {
+
+		if (entries.remove(entry.key, entry))
+			weight -= entry.weight;
+
+		unregister(entry.key);
+	}
+
+	private void unregister(Key key) {
+
+		for (int code : key.codes) {
+			Set<Key> keys = dependents.get(code);
+
+			if (keys != null)
+				keys.remove(key);
+		}
+	}
+
+	/**
+	 * A question, normalized.
+	 */
+	static final class Key {
+
+		private final int codes[];
+		private final int size;
+		private final boolean matchAny;
+		private final boolean suppress;
+		private final int hash;
+
+		private Key(int codes[], int size, boolean matchAny, boolean suppress) {
+
+			this.codes = codes;
+			this.size = size;
+			this.matchAny = matchAny;
+			this.suppress = suppress;
+			this.hash = (Arrays.hashCode(codes) * 31 + size) * 4 + (matchAny ? 2 : 0) + (suppress ? 1 : 0);
+		}
+
+		@Override
+		public int hashCode() {
+
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+
+			if (!(object instanceof Key))
+				return false;
+
+			Key key = (Key) object;
+
+			return hash == key.hash && size == key.size && matchAny == key.matchAny && suppress == key.suppress
+					&& Arrays.equals(codes, key.codes);
+		}
+	}
+
+	private static final class Entry {
+
+		private final Key key;
+		private final Object answers;
+		private final long weight;
+		private volatile boolean referenced;
+
+		private Entry(Key key, Object answers, long weight) {
+
+			this.key = key;
+			this.answers = answers;
+			this.weight = weight;
+		}
+	}
+}
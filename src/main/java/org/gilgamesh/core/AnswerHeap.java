@@ -0,0 +1,191 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+/**
+ * Bounded min-heap of the best answers found, kept in primitive arrays: the weakest answer sits at the root,
+ * so a candidate which cannot make the top is rejected by a single comparison, before anything is allocated.
+ *
+ * Answers are ordered as facts are: by force, then by time. Answers of the same force and time are the same
+ * answer to a set of facts, which keeps the first one offered in candidate order (the lower ID): so does the
+ * heap, whatever the order they were offered, and its top is the head of the set.
+ *
+ * @author Eduardo Alevi
+ */
+class AnswerHeap {
+
+	private final long ids[];
+	private final double forces[];
+	private final long times[];
+	private int size;
+
+
+	AnswerHeap(int capacity) {
+
+		ids = new long[capacity];
+		forces = new double[capacity];
+		times = new long[capacity];
+	}
+
+	int size() {
+
+		return size;
+	}
+
+	/**
+	 * Offers a candidate answer.
+	 *
+	 * @return true if the candidate was kept (up to now).
+	 */
+	boolean offer(long id, double force, long time) {
+
+		if (ids.length <= 0)
+			return false;
+
+		if (size >= ids.length && compare(id, force, time, 0) <= 0)
+			return false;
+
+		for (int i = 0; i < size; i++)
+			if (forces[i] == force && times[i] == time) {
+
+				if (id > ids[i])
+					return false;
+
+				// A lower ID is a better answer: it may sink below its children.
+				ids[i] = id;
+				down(i);
+				return true;
+			}
+
+		if (size < ids.length) {
+			set(size, id, force, time);
+			up(size++);
+			return true;
+		}
+
+		set(0, id, force, time);
+		down(0);
+		return true;
+	}
+
+	/**
+	 * Offers all answers of another heap.
+	 */
+	void offer(AnswerHeap heap) {
+
+		for (int i = 0; i < heap.size; i++)
+			offer(heap.ids[i], heap.forces[i], heap.times[i]);
+	}
+
+	/**
+	 * Sorts the answers in place, from the best to the weakest. After that, answers are read by position only.
+	 */
+	void sort() {
+
+		int count = size;
+
+		while (size > 1) {
+
+			long id = ids[size - 1];
+			double force = forces[size - 1];
+			long time = times[size - 1];
+
+			set(--size, ids[0], forces[0], times[0]);
+			set(0, id, force, time);
+			down(0);
+		}
+
+		size = count;
+	}
+
+	long id(int position) {
+
+		return ids[position];
+	}
+
+	double force(int position) {
+
+		return forces[position];
+	}
+
+	private int compare(long id, double force, long time, int position) {
+
+		if (force != forces[position])
+			return force > forces[position] ? 1 : -1;
+
+		if (time != times[position])
+			return time > times[position] ? 1 : -1;
+
+		return id == ids[position] ? 0 : (id < ids[position] ? 1 : -1);
+	}
+
+	private void set(int position, long id, double force, long time) {
+
+		ids[position] = id;
+		forces[position] = force;
+		times[position] = time;
+	}
+
+	private void up(int position) {
+
+		long id = ids[position];
+		double force = forces[position];
+		long time = times[position];
+
+		while (position > 0) {
+
+			int parent = (position - 1) >>> 1;
+
+			if (compare(id, force, time, parent) >= 0)
+				break;
+
+			set(position, ids[parent], forces[parent], times[parent]);
+			position = parent;
+		}
+
+		set(position, id, force, time);
+	}
+
+	private void down(int position) {
+
+		long id = ids[position];
+		double force = forces[position];
+		long time = times[position];
+
+		while (true) {
+
+			int child = (position << 1) + 1;
+
+			if (child >= size)
+				break;
+
+			if (child + 1 < size && compare(ids[child + 1], forces[child + 1], times[child + 1], child) < 0)
+				child++;
+
+			if (compare(id, force, time, child) <= 0)
+				break;
+
+			set(position, ids[child], forces[child], times[child]);
+			position = child;
+		}
+
+		set(position, id, force, time);
+	}
+}
@@ -19,10 +19,11 @@
 
 package org.gilgamesh.core;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 
 @SuppressWarnings("unchecked")
@@ -31,7 +32,15 @@ public class Atom<T extends Serializable> implements Serializable {
 	private static final long serialVersionUID = 1L;
 	public final T value;
 
-	private HashSet<Long> facts = new HashSet<Long>();
+	/**
+	 * Facts linked to this atom. They are given by the fact store of the memory, so they are not serialized.
+	 */
+	private transient Postings facts = new PostingList();
+	
+	/**
+	 * Dense code of the atom in the memory dictionary. Given again on load, so it is not serialized.
+	 */
+	transient int code;
 
 	
 	
@@ -51,11 +60,25 @@ public class Atom<T extends Serializable> implements Serializable {
 		facts.add(factID);
 	}
 
-	public HashSet<Long> getFacts() {
+	/**
+	 * @return The IDs of the facts linked to this atom.
+	 */
+	public Postings getFacts() {
 
 		return facts;
 	}
 
+	void setFacts(Postings facts) {
+
+		this.facts = facts;
+	}
+
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+
+		input.defaultReadObject();
+		facts = new PostingList();
+	}
+
 	
 	/**
 	 * Returns a generic atom from a value.
@@ -0,0 +1,174 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The memory atoms, each with a dense int code given once, when the atom is first seen. Facts are kept by the
+ * codes of their atoms, so they are matched by integer comparison, and equal values read from different
+ * places are kept once.
+ *
+ * Lookups do not lock. New atoms are serialized on the dictionary, since codes must be given in sequence.
+ *
+ * @author Eduardo Alevi
+ */
+@SuppressWarnings("unchecked")
+class AtomDictionary<T extends Serializable> {
+
+	private static final int CAPACITY = 16;
+
+	private final ConcurrentHashMap<T, Atom<T>> atoms;
+	private final FactStore store;
+	private volatile Atom<T> codes[] = new Atom[CAPACITY];
+	private int size;
+
+
+	/**
+	 * Codes the atoms of a memory: the ones kept by its store, if any, in their codes, or else the ones
+	 * informed, in the map order (on load, for instance).
+	 *
+	 * @param atoms The atoms of the memory.
+	 * @param store The store of the memory facts.
+	 */
+	AtomDictionary(ConcurrentHashMap<T, Atom<T>> atoms, FactStore store) {
+
+		this.atoms = atoms;
+		this.store = store;
+
+		List<Serializable> kept = store.getAtoms();
+
+		if (kept.isEmpty() && store.size() > 0)
+			throw new IllegalArgumentException("The fact store must be empty or keep its atoms.");
+
+		for (Serializable value : kept) {
+			Atom<T> atom = new Atom<T>((T) value);
+			code(atom, false);
+			atoms.put(atom.value, atom);
+		}
+
+		if (kept.isEmpty())
+			for (Atom<T> atom : atoms.values())
+				code(atom, true);
+	}
+
+	/**
+	 * @return The atom of a value, or null if the value is unknown.
+	 */
+	Atom<T> get(T value) {
+
+		return atoms.get(value);
+	}
+
+	/**
+	 * @return The atom of a code.
+	 */
+	Atom<T> get(int code) {
+
+		return codes[code];
+	}
+
+	/**
+	 * @return The code of a value, or -1 if the value is unknown.
+	 */
+	int code(T value) {
+
+		Atom<T> atom = value != null ? atoms.get(value) : null;
+		return atom != null ? atom.code : -1;
+	}
+
+	/**
+	 * Decodes a stored fact. Its atoms are in an array of their type if they share one (as the arrays facts
+	 * were made of, mostly).
+	 *
+	 * @param id The stored fact ID.
+	 * @param force The force of the fact built.
+	 * @return The fact, with the canonical atom values.
+	 */
+	Fact<T> fact(long id, double force) {
+
+		Serializable values[] = new Serializable[store.length(id)];
+		Class<?> type = null;
+
+		for (int i = 0; i < values.length; i++) {
+
+			values[i] = codes[store.code(id, i)].value;
+
+			if (i == 0)
+				type = values[i].getClass();
+			else if (type != values[i].getClass())
+				type = Serializable.class;
+		}
+
+		T atoms[] = (T[]) Array.newInstance(type, values.length);
+		System.arraycopy(values, 0, atoms, 0, values.length);
+
+		return new Fact<T>(id, force, store.time(id), atoms);
+	}
+
+	/**
+	 * @return The atom of a value, created if the value is unknown.
+	 */
+	Atom<T> intern(T value) {
+
+		Atom<T> atom = atoms.get(value);
+		return atom != null ? atom : register(value);
+	}
+
+	synchronized int size() {
+
+		return size;
+	}
+
+	private synchronized Atom<T> register(T value) {
+
+		Atom<T> atom = atoms.get(value);
+
+		if (atom != null)
+			return atom;
+
+		atom = new Atom<T>(value);
+		code(atom, true);
+
+		// Published last: whoever finds the atom also finds its code.
+		atoms.put(value, atom);
+		return atom;
+	}
+
+	/**
+	 * @param keep Indicates that the atom is new to the store too.
+	 */
+	private synchronized void code(Atom<T> atom, boolean keep) {
+
+		Atom<T> array[] = size < codes.length ? codes : Arrays.copyOf(codes, size + (size >> 1));
+
+		if (keep)
+			store.putAtom(size, atom.value);
+
+		atom.code = size;
+		atom.setFacts(store.postings(size));
+		array[size++] = atom;
+		codes = array;
+	}
+}
@@ -0,0 +1,288 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.io.Closeable;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Loads facts in bulk into a memory (see {@link Gilgamesh#bulkLoader()}). Facts are gathered in batches:
+ * repeated facts of a batch are summed into one, new facts are stored in a row, and their links are sorted by
+ * atom and appended to each posting list at once, instead of one by one.
+ *
+ * A loader is used by a single thread. Other writers and snapshots go on meanwhile: a batch is a single writer
+ * to them, so a snapshot waits for the batch in course, if any.
+ *
+ * @author Eduardo Alevi
+ */
+public class BulkLoader<T extends Serializable> implements Closeable {
+
+	static final int BATCH = 1 << 14;
+
+	private final AtomDictionary<T> dictionary;
+	private final FactStore store;
+	private final SnapshotGate gate;
+	private final ForceStatistics statistics;
+	private final Supplier<WriteAheadLog> log;
+	private final Supplier<AnswerCache> cache;
+	private final LinkedHashMap<Entry<T>, Entry<T>> batch = new LinkedHashMap<Entry<T>, Entry<T>>();
+	private long facts;
+	private long created;
+	private int known;
+
+
+	BulkLoader(AtomDictionary<T> dictionary, FactStore store, SnapshotGate gate, ForceStatistics statistics,
+			Supplier<WriteAheadLog> log, Supplier<AnswerCache> cache) {
+
+		this.dictionary = dictionary;
+		this.store = store;
+		this.gate = gate;
+		this.statistics = statistics;
+		this.log = log;
+		this.cache = cache;
+		this.known = dictionary.size();
+	}
+
+	/**
+	 * Reinforces a fact, with +1 to force.
+	 *
+	 * @param values Atoms of the fact.
+	 */
+	public void reinforce(T ... values) {
+
+		fact(1.0, values);
+	}
+
+	/**
+	 * Reinforces facts, with +1 to force each.
+	 *
+	 * @param facts Atoms of each fact.
+	 */
+	public void reinforceAll(Iterator<T[]> facts) {
+
+		while (facts.hasNext())
+			reinforce(facts.next());
+	}
+
+	/**
+	 * Make a explicit fact, with a defined force.
+	 *
+	 * @param force The force to be summed to the fact.
+	 * @param values Atoms of the fact.
+	 */
+	public void fact(double force, T ... values) {
+
+		if (values.length <= 0)
+			throw new NullPointerException("A fact must have one atom at least.");
+
+		int codes[] = new int[values.length];
+
+		for (int i = 0; i < codes.length; i++)
+			codes[i] = dictionary.intern(values[i]).code;
+
+		Entry<T> entry = new Entry<T>(codes, values, known);
+		Entry<T> current = batch.putIfAbsent(entry, entry);
+
+		(current != null ? current : entry).force += force;
+		facts++;
+
+		if (batch.size() >= BATCH)
+			flush();
+	}
+
+	/**
+	 * Stores the facts of the batch in course.
+	 */
+	public void flush() {
+
+		if (batch.isEmpty())
+			return;
+
+		Entry<T> entries[] = batch.keySet().toArray(new Entry[batch.size()]);
+		long ids[] = new long[entries.length];
+		batch.clear();
+		known = dictionary.size();
+
+		int slot = gate.enter();
+
+		try {
+			WriteAheadLog current = log.get();
+			boolean sees = gate.sees(slot);
+
+			if (current != null) {
+				Fact<T> facts[] = new Fact[entries.length];
+
+				for (int i = 0; i < entries.length; i++)
+					facts[i] = new Fact<T>(0, entries[i].force, entries[i].time, entries[i].values);
+
+				current.write(facts, sees);
+			}
+
+			// New facts in a row, linked later: atom code and ID (less the first new one), in a long each.
+			long links[] = new long[entries.length * 4];
+			long first = 0;
+			int linked = 0;
+
+			for (int i = 0; i < entries.length; i++) {
+
+				// Facts of atoms new to the batch are not stored yet (but by a concurrent writer, seen on insert).
+				long id = entries[i].fresh ? 0 : store.find(entries[i].codes);
+
+				if (id != 0) {
+					ids[i] = id;
+					continue;
+				}
+
+				id = store.insert(entries[i].codes, entries[i].time);
+				ids[i] = Math.abs(id);
+
+				if (id > 0) {
+					gate.create(slot, id);
+					statistics.create(ForceStatistics.links(store, id));
+					created++;
+				}
+
+				if (first == 0)
+					first = ids[i];
+
+				// Out of range IDs (from concurrent writers) are linked one by one.
+				if (ids[i] < first || ids[i] - first > Integer.MAX_VALUE) {
+					for (int code : entries[i].codes)
+						dictionary.get(code).add(ids[i]);
+
+					continue;
+				}
+
+				for (int code : entries[i].codes) {
+
+					if (linked == links.length)
+						links = Arrays.copyOf(links, linked * 2);
+
+					links[linked++] = ((long) code << 32) | (ids[i] - first);
+				}
+			}
+
+			link(links, linked, first);
+
+			for (int i = 0; i < entries.length; i++) {
+				gate.change(slot, ids[i], store);
+				statistics.change(ForceStatistics.links(store, ids[i]), entries[i].force, store.add(ids[i], entries[i].force));
+			}
+
+			AnswerCache answers = cache.get();
+
+			if (answers != null)
+				for (Entry<T> entry : entries)
+					answers.invalidate(entry.codes);
+		}
+		finally {
+			gate.exit(slot);
+		}
+	}
+
+	/**
+	 * Stores the facts of the batch in course.
+	 */
+	@Override
+	public void close() {
+
+		flush();
+	}
+
+	/**
+	 * @return The quantity of facts given (repeated ones included).
+	 */
+	public long getFacts() {
+
+		return facts;
+	}
+
+	/**
+	 * @return The quantity of facts created in the memory.
+	 */
+	public long getCreated() {
+
+		return created;
+	}
+
+	/**
+	 * Appends the links sorted by atom, and then by ID: the IDs of each atom at once.
+	 */
+	private void link(long links[], int linked, long first) {
+
+		Arrays.sort(links, 0, linked);
+
+		long ids[] = new long[linked];
+
+		for (int start = 0, end; start < linked; start = end) {
+
+			int code = (int) (links[start] >>> 32);
+
+			int count = 0;
+
+			// A fact repeating an atom is linked to it once.
+			for (end = start; end < linked && (int) (links[end] >>> 32) == code; end++)
+				if (end == start || links[end] != links[end - 1])
+					ids[count++] = first + (int) links[end];
+
+			dictionary.get(code).getFacts().addAll(ids, 0, count);
+		}
+	}
+
+	/**
+	 * A fact of the batch, found by its atom codes.
+	 */
+	private static final class Entry<T extends Serializable> {
+
+		private final int codes[];
+		private final T values[];
+		private final int hash;
+		private final long time = System.nanoTime();
+		private final boolean fresh;
+		private double force;
+
+		/**
+		 * @param known The quantity of atoms before the batch.
+		 */
+		private Entry(int codes[], T values[], int known) {
+
+			this.codes = codes;
+			this.values = values;
+			this.hash = FactStore.hash(codes);
+			this.fresh = Arrays.stream(codes).anyMatch(code -> code >= known);
+		}
+
+		@Override
+		public int hashCode() {
+
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+
+			return object instanceof Entry && Arrays.equals(codes, ((Entry<?>) object).codes);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Bounded cache of values loaded on demand, by dense integer keys. Hits are lock free: they only mark the value
+ * as referenced. Loads are serialized, and evict by the CLOCK policy (second chance): loaded values are kept in
+ * a ring, and a value found referenced on its turn is spared once, so the cold ones go first.
+ *
+ * @author Eduardo Alevi
+ */
+class ClockCache<V> {
+
+	private final AtomicReferenceArray<V> values;
+	private final byte referenced[];
+	private final ArrayDeque<Integer> ring = new ArrayDeque<Integer>();
+	private final IntFunction<V> loader;
+	private final ToLongFunction<V> weigher;
+	private final long capacity;
+	private long weight;
+
+
+	/**
+	 * @param size The quantity of keys (from 0).
+	 * @param capacity The total weight kept.
+	 * @param loader Loads the value of a key.
+	 * @param weigher Gives the weight of a value.
+	 */
+	ClockCache(int size, long capacity, IntFunction<V> loader, ToLongFunction<V> weigher) {
+
+		this.values = new AtomicReferenceArray<V>(size);
+		this.referenced = new byte[size];
+		this.capacity = capacity;
+		this.loader = loader;
+		this.weigher = weigher;
+	}
+
+	V get(int key) {
+
+		V value = values.get(key);
+
+		if (value == null)
+			return load(key);
+
+		// A lost mark spares one value less, nothing else.
+		referenced[key] = 1;
+		return value;
+	}
+
+	/**
+	 * @return The weight kept.
+	 */
+	synchronized long weight() {
+
+		return weight;
+	}
+
+	private synchronized V load(int key) {
+
+		V value = values.get(key);
+
+		if (value != null)
+			return value;
+
+		value = loader.apply(key);
+		weight += weigher.applyAsLong(value);
+
+		while (weight > capacity && !ring.isEmpty()) {
+
+			int candidate = ring.poll();
+
+			if (referenced[candidate] != 0) {
+				referenced[candidate] = 0;
+				ring.add(candidate);
+			}
+			else
+				weight -= weigher.applyAsLong(values.getAndSet(candidate, null));
+		}
+
+		values.set(key, value);
+		referenced[key] = 1;
+		ring.add(key);
+		return value;
+	}
+}
@@ -0,0 +1,328 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongConsumer;
+
+/**
+ * Fact store kept in primitive columns, with no object per fact, so very large memories do not load the
+ * garbage collector. Each page of facts holds a time, a force and an offset column; the offsets point to
+ * the atom codes of the facts, appended to a shared arena of ints (itself paged, so it never gets copied).
+ *
+ * Forces are kept as double bits and summed by compare and set. Facts are found by their atoms in open
+ * addressing tables of packed (hash, ID) slots, one per lock stripe, read without locking.
+ *
+ * @author Eduardo Alevi
+ */
+public class ColumnarFactStore implements FactStore {
+
+	private static final int PAGE_BITS = 14;
+	private static final int PAGE = 1 << PAGE_BITS;
+	private static final int ARENA_BITS = 20;
+	private static final int ARENA = 1 << ARENA_BITS;
+	private static final int STRIPE_BITS = 6;
+	private static final long IDS = 0xffffffffL;
+
+	private final AtomicLong sequence = new AtomicLong();
+	private final AtomicLong arenaSize = new AtomicLong();
+	private final Stripe stripes[] = new Stripe[1 << STRIPE_BITS];
+	private volatile Page pages[] = new Page[16];
+	private volatile int arena[][] = new int[16][];
+
+
+	public ColumnarFactStore() {
+
+		for (int i = 0; i < stripes.length; i++)
+			stripes[i] = new Stripe();
+	}
+
+	@Override
+	public long find(int codes[]) {
+
+		int hash = FactStore.hash(codes);
+		return find(stripes[hash >>> (32 - STRIPE_BITS)].slots, hash, codes);
+	}
+
+	@Override
+	public long insert(int codes[], long time) {
+
+		if (codes.length >= ARENA)
+			throw new IllegalArgumentException("Too many atoms in a fact: " + codes.length);
+
+		int hash = FactStore.hash(codes);
+		Stripe stripe = stripes[hash >>> (32 - STRIPE_BITS)];
+
+		synchronized (stripe) {
+
+			long id = find(stripe.slots, hash, codes);
+
+			if (id != 0)
+				return -id;
+
+			id = sequence.incrementAndGet();
+
+			if (id > IDS)
+				throw new IllegalStateException("Fact store is full");
+
+			long offset = append(codes);
+			Page page = page(id);
+			int row = (int) (id & (PAGE - 1));
+
+			page.times[row] = time;
+
+			// Published last: a fact found by its ID (or by its atoms) is complete.
+			page.offsets.set(row, offset + 1);
+			stripe.put(hash, id);
+			return id;
+		}
+	}
+
+	@Override
+	public double add(long id, double force) {
+
+		AtomicLongArray forces = get(id).forces;
+		int row = (int) (id & (PAGE - 1));
+
+		while (true) {
+
+			long bits = forces.get(row);
+			double sum = Double.longBitsToDouble(bits) + force;
+
+			if (forces.compareAndSet(row, bits, Double.doubleToRawLongBits(sum)))
+				return sum;
+		}
+	}
+
+	@Override
+	public double force(long id) {
+
+		return Double.longBitsToDouble(get(id).forces.get((int) (id & (PAGE - 1))));
+	}
+
+	@Override
+	public long time(long id) {
+
+		return get(id).times[(int) (id & (PAGE - 1))];
+	}
+
+	@Override
+	public int length(long id) {
+
+		long offset = offset(id);
+		return arena[(int) (offset >>> ARENA_BITS)][(int) (offset & (ARENA - 1))];
+	}
+
+	@Override
+	public int code(long id, int position) {
+
+		long offset = offset(id) + 1 + position;
+		return arena[(int) (offset >>> ARENA_BITS)][(int) (offset & (ARENA - 1))];
+	}
+
+	@Override
+	public long size() {
+
+		return sequence.get();
+	}
+
+	@Override
+	public void forEach(LongConsumer action) {
+
+		long size = sequence.get();
+		Page directory[] = pages;
+
+		// Facts still being inserted are skipped.
+		for (long id = 1; id <= size; id++) {
+
+			int position = (int) (id >>> PAGE_BITS);
+
+			if (position < directory.length && directory[position] != null && directory[position].offsets.get((int) (id & (PAGE - 1))) != 0)
+				action.accept(id);
+		}
+	}
+
+	private long find(AtomicLongArray slots, int hash, int codes[]) {
+
+		int mask = slots.length() - 1;
+
+		for (int i = hash & mask; ; i = (i + 1) & mask) {
+
+			long slot = slots.get(i);
+
+			if (slot == 0)
+				return 0;
+
+			if ((int) (slot >>> 32) == hash && equals(slot & IDS, codes))
+				return slot & IDS;
+		}
+	}
+
+	private boolean equals(long id, int codes[]) {
+
+		long offset = offset(id);
+		int page[] = arena[(int) (offset >>> ARENA_BITS)];
+		int position = (int) (offset & (ARENA - 1));
+
+		if (page[position] != codes.length)
+			return false;
+
+		for (int i = 0; i < codes.length; i++)
+			if (page[position + 1 + i] != codes[i])
+				return false;
+
+		return true;
+	}
+
+	private Page get(long id) {
+
+		return pages[(int) (id >>> PAGE_BITS)];
+	}
+
+	private long offset(long id) {
+
+		return get(id).offsets.get((int) (id & (PAGE - 1))) - 1;
+	}
+
+	/**
+	 * Appends the length and the codes of a fact to the arena. A fact never spans two arena pages.
+	 *
+	 * @return The arena offset of the fact.
+	 */
+	private long append(int codes[]) {
+
+		long offset;
+
+		while (true) {
+
+			long size = arenaSize.get();
+			offset = size;
+
+			if ((offset & (ARENA - 1)) + codes.length + 1 > ARENA)
+				offset = ((offset >>> ARENA_BITS) + 1) << ARENA_BITS;
+
+			if (arenaSize.compareAndSet(size, offset + codes.length + 1))
+				break;
+		}
+
+		int page[] = arena(offset);
+		int position = (int) (offset & (ARENA - 1));
+
+		page[position] = codes.length;
+		System.arraycopy(codes, 0, page, position + 1, codes.length);
+		return offset;
+	}
+
+	private int[] arena(long offset) {
+
+		int position = (int) (offset >>> ARENA_BITS);
+		int directory[][] = arena;
+
+		if (position < directory.length && directory[position] != null)
+			return directory[position];
+
+		synchronized (stripes) {
+
+			directory = arena;
+
+			if (position >= directory.length)
+				directory = Arrays.copyOf(directory, Math.max(position + 1, directory.length << 1));
+
+			if (directory[position] == null)
+				directory[position] = new int[ARENA];
+
+			arena = directory;
+			return directory[position];
+		}
+	}
+
+	private Page page(long id) {
+
+		int position = (int) (id >>> PAGE_BITS);
+		Page directory[] = pages;
+
+		if (position < directory.length && directory[position] != null)
+			return directory[position];
+
+		synchronized (stripes) {
+
+			directory = pages;
+
+			if (position >= directory.length)
+				directory = Arrays.copyOf(directory, Math.max(position + 1, directory.length << 1));
+
+			if (directory[position] == null)
+				directory[position] = new Page();
+
+			pages = directory;
+			return directory[position];
+		}
+	}
+
+	/**
+	 * The columns of a page of facts. A fact row is complete once its offset (plus one) is set.
+	 */
+	private static final class Page {
+
+		private final long times[] = new long[PAGE];
+		private final AtomicLongArray forces = new AtomicLongArray(PAGE);
+		private final AtomicLongArray offsets = new AtomicLongArray(PAGE);
+	}
+
+	/**
+	 * Open addressing table of a lock stripe. Slots pack the fact hash (high half) and ID (low half); 0 is
+	 * free. A full table is replaced by a larger one, so readers holding the former one still find what it has.
+	 */
+	private static final class Stripe {
+
+		private volatile AtomicLongArray slots = new AtomicLongArray(16);
+		private int size;
+
+		private void put(int hash, long id) {
+
+			if ((size + 1) * 4 > slots.length() * 3) {
+
+				AtomicLongArray larger = new AtomicLongArray(slots.length() << 1);
+
+				for (int i = 0; i < slots.length(); i++)
+					if (slots.get(i) != 0)
+						put(larger, slots.get(i));
+
+				slots = larger;
+			}
+
+			put(slots, ((long) hash << 32) | id);
+			size++;
+		}
+
+		private static void put(AtomicLongArray slots, long slot) {
+
+			int mask = slots.length() - 1;
+			int i = (int) (slot >>> 32) & mask;
+
+			while (slots.get(i) != 0)
+				i = (i + 1) & mask;
+
+			slots.set(i, slot);
+		}
+	}
+}
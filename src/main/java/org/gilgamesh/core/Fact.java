@@ -21,9 +21,7 @@ package org.gilgamesh.core;
 
 import java.io.Serializable;
 import java.lang.reflect.Array;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.stream.Collectors;
 
 @SuppressWarnings("unchecked")
@@ -61,29 +59,71 @@ public class Fact<T extends Serializable> implements Comparable<Fact<T>>, Serial
 		this.force = force;
 		this.time = time;
 
-		int value = 0;
+		// Mixed as the store mixes atom codes: facts sharing most of their atoms must not collide.
+		int hashes[] = new int[atoms.length];
 
-		for (T atom : atoms)
-			value += atom.hashCode();
+		for (int i = 0; i < atoms.length; i++)
+			hashes[i] = atoms[i].hashCode();
+
+		hash = FactStore.hash(hashes);
+	}
+
+	/**
+	 * Copy of a fact with another force. Atoms (and so the hash) are shared, not copied.
+	 */
+	Fact(Fact<T> fact, double force) {
 		
-		hash = value;
+		this.id = 0;
+		this.atoms = fact.atoms;
+		this.force = force;
+		this.time = fact.time;
+		this.hash = fact.hash;
 	}
 
 	public Fact<T> suppress(T ... values)
 	{
-		List<T> remains = new ArrayList<T>(Arrays.asList(atoms));
-		
-		for(T current : values)
-			remains.remove(current);
+		return suppress(force, values);
+	}
+
+	/**
+	 * Suppresses atoms, building the remaining fact straight from a mask of the atoms removed.
+	 * 
+	 * @param force The force of the remaining fact.
+	 * @param values The atoms to be suppressed.
+	 * @return The remaining fact.
+	 */
+	Fact<T> suppress(double force, T ... values) {
 		
-		T array[] = (T[]) Array.newInstance(values[0].getClass(), remains.size());
+		boolean removed[] = new boolean[atoms.length];
+		T array[] = (T[]) Array.newInstance(values[0].getClass(), atoms.length - remove(removed, values));
 		
-		for(int i=0; i<remains.size(); i++)
-			array[i] = remains.get(i);
+		for (int i = 0, position = 0; i < atoms.length; i++)
+			if (!removed[i])
+				array[position++] = atoms[i];
 		
 		return new Fact<T>(0, force, time, array);
 	}
 
+	/**
+	 * Marks the atoms suppressed: each value suppresses its first occurrence not yet suppressed.
+	 * 
+	 * @return The quantity of atoms marked.
+	 */
+	private int remove(boolean removed[], T ... values) {
+		
+		int count = 0;
+		
+		for (T value : values)
+			for (int i = 0; i < atoms.length; i++)
+				if (!removed[i] && value.equals(atoms[i])) {
+					removed[i] = true;
+					count++;
+					break;
+				}
+		
+		return count;
+	}
+
 	public Atom<T>[] toAtoms() {
 		
 		return Arrays.asList(atoms).stream().<Atom<T>>map(v -> new Atom<T>(v)).collect(Collectors.toList()).toArray(new Atom[0]);
@@ -92,10 +132,10 @@ public class Fact<T extends Serializable> implements Comparable<Fact<T>>, Serial
 	@Override
 	public String toString() {
 
-		String string = "";
+		StringBuilder string = new StringBuilder();
 
 		for (int i = 0; i < atoms.length; i++)
-			string += atoms[i] + " ";
+			string.append(atoms[i]).append(' ');
 
 		return String.format("[ %d: %.8f = %s]", time, force, string);
 	}
@@ -0,0 +1,150 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Storage engine of the memory facts. Facts are kept by the dictionary codes of their atoms (see
+ * {@link Gilgamesh}), and known by IDs given by the store: 1, 2, 3... in insertion order.
+ *
+ * Stores are used by many threads at once: reads must not lock, and a fact inserted by two threads at once
+ * must be stored once.
+ *
+ * Stores kept on the heap only need the facts. Stores kept in files also keep the atoms (values and fact
+ * links), so a memory can be opened again from the store alone.
+ *
+ * @author Eduardo Alevi
+ */
+public interface FactStore {
+
+	/**
+	 * Looks for a fact.
+	 *
+	 * @param codes The codes of the fact atoms, in order.
+	 * @return The fact ID, or 0 if the fact is not stored.
+	 */
+	long find(int codes[]);
+
+	/**
+	 * Stores a fact, with no force, if not stored yet.
+	 *
+	 * @param codes The codes of the fact atoms, in order.
+	 * @param time The fact time.
+	 * @return The ID of the new fact, or the ID of the one already stored negated.
+	 */
+	long insert(int codes[], long time);
+
+	/**
+	 * Sums a force to a fact. Concurrent sums on the same fact never get lost.
+	 *
+	 * @return The fact force after the sum.
+	 */
+	double add(long id, double force);
+
+	double force(long id);
+
+	long time(long id);
+
+	/**
+	 * @return The quantity of atoms of a fact.
+	 */
+	int length(long id);
+
+	/**
+	 * @return The code of an atom of a fact.
+	 */
+	int code(long id, int position);
+
+	/**
+	 * @return The quantity of facts stored.
+	 */
+	long size();
+
+	/**
+	 * Walks the facts stored, in ascending ID order.
+	 *
+	 * @param action The action to be done with each fact ID.
+	 */
+	void forEach(LongConsumer action);
+
+	/**
+	 * Keeps a new atom. Called by the memory for each atom it codes, before linking any fact to it.
+	 *
+	 * @param code The atom code (0, 1, 2... in order).
+	 * @param value The atom value.
+	 */
+	default void putAtom(int code, Serializable value) {
+	}
+
+	/**
+	 * @return The atom values kept, in code order (none if the store does not keep atoms).
+	 */
+	default List<Serializable> getAtoms() {
+
+		return Collections.emptyList();
+	}
+
+	/**
+	 * @return The fact IDs linked to an atom (a new heap list if the store does not keep atoms).
+	 */
+	default Postings postings(int code) {
+
+		return new PostingList();
+	}
+
+	/**
+	 * @return The statistics of the fact forces, which the memory keeps as forces change: the ones the store
+	 *         saved with its facts, or else (by default) the ones of a walk over them.
+	 */
+	default ForceStatistics statistics() {
+
+		ForceStatistics statistics = new ForceStatistics();
+
+		forEach(id -> statistics.add(this, id, force(id)));
+		return statistics;
+	}
+
+	/**
+	 * Mixes the codes of a fact (or the hashes of its atoms, see {@link Fact#hashCode()}) in the Murmur3 style,
+	 * so facts sharing most of their atoms do not collide.
+	 *
+	 * @return The hash of the fact.
+	 */
+	static int hash(int codes[]) {
+
+		int value = codes.length;
+
+		for (int code : codes) {
+			int current = Integer.rotateLeft(code * 0xcc9e2d51, 15) * 0x1b873593;
+			value = Integer.rotateLeft(value ^ current, 13) * 5 + 0xe6546b64;
+		}
+
+		value ^= value >>> 16;
+		value *= 0x85ebca6b;
+		value ^= value >>> 13;
+		value ^= value >>> 16;
+
+		return value;
+	}
+}
@@ -0,0 +1,259 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of the fact forces, kept as forces change, so they are read in constant time. Each fact counts
+ * once per atom linked to it, as in the walk of {@link Gilgamesh#statistics(boolean)}. Sums are striped, so
+ * writers do not contend.
+ *
+ * Forces are summed shifted by a reference force (the first one other than 0), so forces far from 0 but close
+ * to each other do not cancel out in the variance. Facts of force 0 (new ones, mostly) are only counted, apart,
+ * so a fact given its first force moves from them with no loss. Every change is a sum, so changes of the same
+ * fact by concurrent writers may be counted in any order.
+ *
+ * @author Eduardo Alevi
+ */
+final class ForceStatistics {
+
+	/**
+	 * Links of the facts of force 0, and links, sum and sum of squares of the other forces less the shift.
+	 */
+	private final LongAdder zeros = new LongAdder();
+	private final LongAdder links = new LongAdder();
+	private final DoubleAdder sum = new DoubleAdder();
+	private final DoubleAdder squares = new DoubleAdder();
+	private final AtomicLong shift = new AtomicLong(Double.doubleToRawLongBits(Double.NaN));
+
+
+	/**
+	 * Counts a new fact, with no force.
+	 *
+	 * @param links The quantity of atoms linked to the fact.
+	 */
+	void create(int links) {
+
+		zeros.add(links);
+	}
+
+	/**
+	 * Counts a force summed to a fact.
+	 *
+	 * @param links The quantity of atoms linked to the fact.
+	 * @param force The force summed.
+	 * @param after The fact force after the sum.
+	 */
+	void change(int links, double force, double after) {
+
+		double before = after - force;
+
+		if (before == after)
+			return;
+
+		if (before == 0) {
+			zeros.add(-links);
+			add(links, after);
+		}
+		else if (after == 0) {
+			add(-links, before);
+			zeros.add(links);
+		}
+		else {
+			// The difference of the squares, as a product: no large squares cancel out.
+			double difference = after - before;
+			double shift = shift(after);
+
+			sum.add(links * difference);
+			squares.add(links * difference * (after - shift + before - shift));
+		}
+	}
+
+	/**
+	 * Counts (or discounts, given negative links) a force other than 0.
+	 */
+	private void add(long links, double force) {
+
+		double shifted = force - shift(force);
+
+		this.links.add(links);
+		sum.add(links * shifted);
+		squares.add(links * shifted * shifted);
+	}
+
+	/**
+	 * Counts facts, by their shifted sums.
+	 *
+	 * @param zeros The links of the facts of force 0.
+	 * @param links The links of the other facts.
+	 * @param shift The force their sums are shifted by.
+	 */
+	void add(long zeros, long links, double shift, double sum, double squares) {
+
+		this.zeros.add(zeros);
+
+		if (links == 0)
+			return;
+
+		// Sums shifted by another force are shifted again.
+		double difference = shift - shift(shift);
+
+		this.links.add(links);
+		this.sum.add(sum + links * difference);
+		this.squares.add(squares + difference * (2 * sum + links * difference));
+	}
+
+	long zeros() {
+
+		return zeros.sum();
+	}
+
+	long links() {
+
+		return links.sum();
+	}
+
+	/**
+	 * @return The force the sums are shifted by (0 before any force other than 0 is counted).
+	 */
+	double shift() {
+
+		double shift = Double.longBitsToDouble(this.shift.get());
+
+		return shift == shift ? shift : 0;
+	}
+
+	double sum() {
+
+		return sum.sum();
+	}
+
+	double squares() {
+
+		return squares.sum();
+	}
+
+	/**
+	 * @return The force the sums are shifted by, set to the force given if there is none yet.
+	 */
+	private double shift(double force) {
+
+		this.shift.compareAndSet(Double.doubleToRawLongBits(Double.NaN), Double.doubleToRawLongBits(force));
+		return Double.longBitsToDouble(this.shift.get());
+	}
+
+	/**
+	 * @return The statistics, as of the sums read (writers may go on meanwhile).
+	 */
+	Statistics get() {
+
+		long zeros = this.zeros.sum();
+		long count = zeros + links.sum();
+
+		if (count <= 0)
+			return new Statistics(0, 0, 0, 0);
+
+		// Facts of force 0 are at -shift.
+		double shift = shift();
+		double mean = (sum.sum() - zeros * shift) / count;
+		double variance = Math.max(0, (squares.sum() + zeros * shift * shift) / count - mean * mean);
+
+		return new Statistics((int) count, shift + mean, variance, Math.sqrt(variance));
+	}
+
+	/**
+	 * @return The quantity of atoms linked to a fact: its distinct atoms.
+	 */
+	static int links(FactStore store, long id) {
+
+		int length = store.length(id);
+		int links = 0;
+
+		atoms:
+		for (int i = 0; i < length; i++) {
+
+			int code = store.code(id, i);
+
+			for (int j = 0; j < i; j++)
+				if (store.code(id, j) == code)
+					continue atoms;
+
+			links++;
+		}
+
+		return links;
+	}
+
+	/**
+	 * Computes the statistics walking the facts linked to each atom, in parallel: the mean first, and then the
+	 * variance around it.
+	 */
+	static Statistics walk(Collection<? extends Atom<?>> atoms, FactStore store) {
+
+		double totals[] = atoms.parallelStream().map(atom -> {
+
+			PostingList.Cursor cursor = atom.getFacts().cursor();
+			double sum = 0;
+
+			for (int i = 0; i < cursor.size(); i++)
+				sum += store.force(cursor.get(i));
+
+			return new double[] { cursor.size(), sum };
+
+		}).reduce(new double[2], (a, b) -> new double[] { a[0] + b[0], a[1] + b[1] });
+
+		if (totals[0] <= 0)
+			return new Statistics(0, 0, 0, 0);
+
+		double average = totals[1] / totals[0];
+		double variance = atoms.parallelStream().mapToDouble(atom -> {
+
+			PostingList.Cursor cursor = atom.getFacts().cursor();
+			double sum = 0;
+
+			for (int i = 0; i < cursor.size(); i++) {
+				double difference = average - store.force(cursor.get(i));
+				sum += difference * difference;
+			}
+
+			return sum;
+
+		}).sum() / totals[0];
+
+		return new Statistics((int) totals[0], average, variance, Math.sqrt(variance));
+	}
+
+	/**
+	 * Counts a fact with its force.
+	 */
+	void add(FactStore store, long id, double force) {
+
+		int links = links(store, id);
+
+		if (force == 0)
+			zeros.add(links);
+		else
+			add(links, force);
+	}
+}
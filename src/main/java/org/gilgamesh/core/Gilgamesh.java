@@ -19,23 +19,35 @@
 
 package org.gilgamesh.core;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.reflect.Array;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,13 +57,73 @@ import java.util.logging.Logger;
  * @author Eduardo Alevi
  */
 @SuppressWarnings("unchecked")
-public class Gilgamesh<T extends Serializable> implements Serializable {
+public class Gilgamesh<T extends Serializable> implements Serializable, Closeable {
 
 	
 	public static final long serialVersionUID = 100L;
+	
+	private static final int PARALLEL_THRESHOLD = 16384;
 
 	private ConcurrentHashMap<T, Atom<T>> atoms = new ConcurrentHashMap<T, Atom<T>>();
-	private ConcurrentSkipListMap<Long, Fact<T>> facts = new ConcurrentSkipListMap<Long, Fact<T>>();
+	
+	/**
+	 * Serialized form of the facts (ID to fact) and of the last fact ID, as in former releases. Only set while
+	 * the memory is saved or loaded.
+	 */
+	private ConcurrentSkipListMap<Long, Fact<T>> facts;
+	private AtomicLong sequence;
+	
+	/**
+	 * The memory facts, kept by the codes of their atoms in <i>dictionary</i>.
+	 */
+	private transient FactStore store;
+	
+	/**
+	 * Parallel scoring of questions: pool used and quantity of candidates from which it is used.
+	 */
+	private transient ForkJoinPool pool;
+	private transient int parallelThreshold = PARALLEL_THRESHOLD;
+	
+	/**
+	 * Codes of the atoms in <i>atoms</i>. Given again on load, so it is not serialized.
+	 */
+	private transient AtomDictionary<T> dictionary;
+	
+	/**
+	 * Writers of the memory facts, seen by snapshots taken while they go on.
+	 */
+	private transient SnapshotGate gate = new SnapshotGate();
+	
+	/**
+	 * Log of the facts given, if any, and the first log segment whose facts are not in the memory loaded.
+	 */
+	private transient volatile WriteAheadLog log;
+	private transient long checkpoint;
+	
+	/**
+	 * Load of the memory, if it was loaded.
+	 */
+	private transient SnapshotProgress startup;
+	
+	/**
+	 * Statistics of the fact forces, kept as forces change.
+	 */
+	private transient ForceStatistics statistics;
+	
+	/**
+	 * Metrics recorded by the memory.
+	 */
+	private transient volatile Instruments instruments = new Instruments(MetricsRegistry.getGlobal());
+	
+	/**
+	 * Answers of the questions asked, if cached.
+	 */
+	private transient volatile AnswerCache cache;
+	
+	/**
+	 * Executor of the questions asked asynchronously.
+	 */
+	private transient volatile QueryExecutor executor;
 	
 	
 	
@@ -62,69 +134,252 @@ public class Gilgamesh<T extends Serializable> implements Serializable {
 	
 	
 
-	private Atom<T> refresh(Atom<T> atom) {
-
-		if(atoms.containsKey(atom.value))
-			return atoms.get(atom.value);
+	/**
+	 * Creates an empty memory, with facts kept in a {@link HeapFactStore}.
+	 */
+	public Gilgamesh() {
 		
-		atoms.put(atom.value, atom);
-		return atom;
+		this(new HeapFactStore());
 	}
 	
-	private Fact<T> refresh(Fact<T> fact) {
-
-		if(facts.containsValue(fact)) {
+	/**
+	 * Creates a memory over a fact store: an empty one, or one which keeps its atoms (a memory opened again
+	 * from its files, for instance).
+	 * 
+	 * @param store The store of the memory facts.
+	 */
+	public Gilgamesh(FactStore store) {
+		
+		this.store = store;
+		this.dictionary = new AtomDictionary<T>(atoms, store);
+		this.statistics = store.statistics();
+	}
+	
+	/**
+	 * @return The ID of a memory fact, created (with no force) if the memory does not have it, or negated if
+	 *         it was found.
+	 */
+	private long refresh(Fact<T> fact) {
 
-			Iterator<Fact<T>> iterator = facts.values().iterator();
-			
-			while(iterator.hasNext()) {
-				
-				Fact<T> current = iterator.next();
-				
-				if(current.equals(fact))
-					return current;
-			}
-		}
+		int codes[] = new int[fact.atoms.length];
+		
+		for (int i = 0; i < codes.length; i++)
+			if ((codes[i] = dictionary.code(fact.atoms[i])) < 0)
+				return create(fact);
+		
+		long id = store.find(codes);
+		
+		return id != 0? -id : create(fact);
+	}
+	
+	/**
+	 * Creates a memory fact and links its atoms. Concurrent writers of the same new fact get the same ID;
+	 * links are sets, so linking a fact twice does no harm.
+	 * 
+	 * @param fact The fact to be created.
+	 * @return The memory fact ID, negated if it was created by another writer.
+	 */
+	private long create(Fact<T> fact) {
+		
+		Atom<T> values[] = new Atom[fact.atoms.length];
+		int codes[] = new int[values.length];
+		
+		for (int i = 0; i < values.length; i++)
+			codes[i] = (values[i] = dictionary.intern(fact.atoms[i])).code;
+		
+		long id = store.insert(codes, fact.time);
+		
+		for (Atom<T> atom : values)
+			atom.add(Math.abs(id));
 		
-		long id = 1 + (facts.size() > 0? facts.descendingKeySet().iterator().next() : 0l);
-		fact = new Fact<T>(id, 0.0, fact.time, fact.atoms);
-		facts.put(id, fact);
+		return id;
+	}
+	
+	private synchronized void writeObject(ObjectOutputStream output) throws IOException {
 		
-		return fact;
+		facts = new ConcurrentSkipListMap<Long, Fact<T>>();
+		store.forEach(id -> facts.put(id, dictionary.fact(id, store.force(id))));
+		sequence = new AtomicLong(facts.isEmpty()? 0l : facts.lastKey());
+		
+		try {
+			output.defaultWriteObject();
+		}
+		finally {
+			facts = null;
+			sequence = null;
+		}
 	}
 	
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		
+		input.defaultReadObject();
+		store = new HeapFactStore();
+		gate = new SnapshotGate();
+		parallelThreshold = PARALLEL_THRESHOLD;
+		dictionary = new AtomDictionary<T>(atoms, store);
+		
+		// Facts are stored again in ID order: IDs are given anew, without the gaps of former releases.
+		for(Fact<T> fact : facts.values())
+			store.add(Math.abs(create(fact)), fact.force);
+		
+		statistics = store.statistics();
+		instruments = new Instruments(MetricsRegistry.getGlobal());
+		facts = null;
+		sequence = null;
+	}
 	
 	/**
-	 * Saves the Gilgamesh Core memory into a file.
+	 * Saves the Gilgamesh Core memory into a file, as a binary {@link Snapshot} of the memory as it was on the
+	 * call. Facts may be given while it is saved. The snapshot is written aside and then moved over the file,
+	 * so a failed save keeps the former file.
 	 * 
 	 * @param file The file to be saved. If exists, it will be overridden.
 	 * @param core The Gilgamesh Core object to be saved.
 	 */
-	public synchronized static <T extends Serializable> boolean save(File file, Gilgamesh<T> gilgamesh) {
+	public static <T extends Serializable> boolean save(File file, Gilgamesh<T> gilgamesh) {
+
+		return save(file, gilgamesh, new SnapshotProgress(file), false);
+	}
+	
+	/**
+	 * Saves the memory into a file, as {@link #save(File, Gilgamesh)} does, and deletes the log segments (see
+	 * {@link #setLog(WriteAheadLog)}) whose facts are all in it.
+	 * 
+	 * @param file The file to be saved. If exists, it will be overridden.
+	 * @return true if the memory was saved. false otherwise.
+	 */
+	public boolean checkpoint(File file) {
+		
+		return save(file, this, new SnapshotProgress(file), true);
+	}
+	
+	/**
+	 * Recovers a memory after a crash: loads its last snapshot, if any, replays the facts logged after it and
+	 * logs the next facts.
+	 * 
+	 * @param file The snapshot file, saved by {@link #checkpoint(File)} or {@link #save(File, Gilgamesh)}.
+	 * @param log The log of the memory.
+	 * @return The memory recovered, or null if it cannot be recovered.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized static <T extends Serializable> Gilgamesh<T> recover(File file, WriteAheadLog log) {
+		
+		try {
+			
+			Gilgamesh<T> core = file != null && file.exists() ? Gilgamesh.<T>load(file) : new Gilgamesh<T>();
+			
+			if (core == null)
+				return null;
+			
+			long count = log.replay(core.checkpoint, fact -> core.fact((Fact<T>) (Fact<?>) fact));
+			core.setLog(log);
+			
+			Logger.getGlobal().log(Level.FINER, "Gilgamesh Core recovered from " + file + ": " + count + " facts replayed");
+			return core;
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			Logger.getGlobal().log(Level.SEVERE, "Cannot recover Gilgamesh Core memory from file " + file);
+			
+			return null;
+		}
+	}
+	
+	/**
+	 * Saves the memory into a file, as {@link #save(File, Gilgamesh)} does, in a background thread.
+	 * 
+	 * @param file The file to be saved. If exists, it will be overridden.
+	 * @return The progress of the snapshot, done once it is saved (or failed).
+	 */
+	public SnapshotProgress snapshot(File file) {
+		
+		SnapshotProgress progress = new SnapshotProgress(file);
+		Thread thread = new Thread(() -> save(file, this, progress, false), "gilgamesh-snapshot");
+		
+		thread.start();
+		return progress;
+	}
+	
+	/**
+	 * @param truncate Indicates that the log segments whose facts are all in the snapshot are deleted.
+	 */
+	private synchronized static <T extends Serializable> boolean save(File file, Gilgamesh<T> gilgamesh, 
+			SnapshotProgress progress, boolean truncate) {
 
+		File temporary = null;
+		boolean saved = false;
+		
 		try {
 			
 			if (file == null || file.isDirectory())
 				return false;
 
-			ObjectOutputStream output = null;
-
-			output = new ObjectOutputStream(new FileOutputStream(file));
-			output.writeObject(gilgamesh);
-			output.close();
+			temporary = new File(file.getAbsolutePath() + ".tmp");
+			
+			try (SnapshotOutput output = new SnapshotOutput(FileChannel.open(temporary.toPath(), 
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+				
+				long start = System.nanoTime();
+				
+				synchronized (gilgamesh.gate) {
+					
+					// Writers of the epoch log in a new segment: the snapshot holds the facts of the former ones.
+					WriteAheadLog log = gilgamesh.log;
+					
+					if (log != null)
+						gilgamesh.checkpoint = log.rotate();
+					
+					SnapshotGate.Epoch epoch;
+					
+					try {
+						epoch = gilgamesh.gate.open(gilgamesh.dictionary, gilgamesh.store);
+					}
+					finally {
+						if (log != null)
+							log.promote();
+					}
+					
+					gilgamesh.instruments.wait.record(System.nanoTime() - start);
+					
+					try {
+						progress.start(epoch.last());
+						Snapshot.write(output, gilgamesh.dictionary, gilgamesh.store, epoch, gilgamesh.checkpoint, progress);
+					}
+					finally {
+						gilgamesh.gate.close();
+					}
+				}
+			}
+			
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, 
+					StandardCopyOption.ATOMIC_MOVE);
+			
+			if (truncate && gilgamesh.log != null)
+				gilgamesh.log.truncate(gilgamesh.checkpoint);
+			
+			gilgamesh.instruments.save.record(progress.getElapsed());
+			gilgamesh.instruments.saved.add(progress.getBytes());
 
-			Logger.getGlobal().log(Level.FINER, "Gilgamesh Core saved in " + file.getAbsolutePath());
-			return true;
+			Logger.getGlobal().log(Level.FINER, "Gilgamesh Core saved in " + file.getAbsolutePath() + ": " + progress);
+			return saved = true;
 		}
 		catch (Exception e) {
 			e.printStackTrace();
 			Logger.getGlobal().log(Level.SEVERE, "Cannot save Gilgamesh in file " + file);
+			
+			if (temporary != null)
+				temporary.delete();
+			
 			return false;
 		}
+		finally {
+			progress.finish(saved);
+		}
 	}
 
 	/**
-	 * Loads a Gilgamesh Core memory binary file.
+	 * Loads a Gilgamesh Core memory binary file: a {@link Snapshot}, or a memory saved by Java serialization
+	 * in former releases.
 	 * 
 	 * @param <Type> the core type to be created.
 	 * @param file The file to be read.
@@ -137,12 +392,34 @@ public class Gilgamesh<T extends Serializable> implements Serializable {
 			if (file == null || !file.exists() || file.isDirectory())
 				return null;
 
-			ObjectInput input = null;
-
-			input = new ObjectInputStream(new FileInputStream(file));
-			Gilgamesh<T> core = (Gilgamesh<T>) input.readObject();
-			input.close();
-			Logger.getGlobal().log(Level.FINER, "Gilgamesh Core loaded from " + file.getAbsolutePath());
+			Gilgamesh<T> core;
+			SnapshotProgress progress = new SnapshotProgress(file);
+			
+			if (Snapshot.isSnapshot(file)) {
+				
+				HeapFactStore store = new HeapFactStore();
+				core = new Gilgamesh<T>(store);
+				
+				try (SnapshotInput input = new SnapshotInput(FileChannel.open(file.toPath(), StandardOpenOption.READ))) {
+					core.checkpoint = Snapshot.read(input, core.dictionary, store, ForkJoinPool.commonPool(), progress,
+							core.statistics);
+				}
+			}
+			else {
+				
+				ObjectInput input = null;
+	
+				input = new ObjectInputStream(new FileInputStream(file));
+				core = (Gilgamesh<T>) input.readObject();
+				input.close();
+				progress.update(core.store.size(), file.length());
+			}
+			
+			progress.finish(true);
+			core.startup = progress;
+			core.instruments.load.record(progress.getElapsed());
+			core.instruments.loaded.add(progress.getBytes());
+			Logger.getGlobal().log(Level.FINER, "Gilgamesh Core loaded from " + file.getAbsolutePath() + ": " + progress);
 			
 			return core;
 		}
@@ -154,6 +431,64 @@ public class Gilgamesh<T extends Serializable> implements Serializable {
 		}
 	}
 
+	/**
+	 * Opens a Gilgamesh Core memory binary file on demand: only its atoms and the snapshot index are read, and
+	 * facts and links are paged in as questions touch them (see {@link SnapshotFactStore}). Memories saved by
+	 * Java serialization, as in former releases, are loaded in full, as {@link #load(File)} does.
+	 *
+	 * @param file The file to be read.
+	 * @return The Gilgamesh Core object.
+	 */
+	public synchronized static <T extends Serializable> Gilgamesh<T> open(File file) {
+
+		try {
+
+			if (file == null || !file.exists() || file.isDirectory())
+				return null;
+
+			if (Snapshot.version(file) != Snapshot.VERSION)
+				return load(file);
+
+			SnapshotProgress progress = new SnapshotProgress(file);
+			SnapshotFactStore store = new SnapshotFactStore(file);
+			Gilgamesh<T> core;
+
+			try {
+				core = new Gilgamesh<T>(store);
+			}
+			catch (RuntimeException e) {
+				store.close();
+				throw e;
+			}
+
+			core.checkpoint = store.getCheckpoint();
+			progress.finish(true);
+			core.startup = progress;
+			core.instruments.load.record(progress.getElapsed());
+			core.instruments.loaded.add(progress.getBytes());
+			Logger.getGlobal().log(Level.FINER, "Gilgamesh Core opened from " + file.getAbsolutePath() + ": " + progress);
+
+			return core;
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			Logger.getGlobal().log(Level.SEVERE, "Cannot open Gilgamesh Core memory from file " + file);
+
+			return null;
+		}
+	}
+
+	/**
+	 * Closes the fact store, if it holds files (a snapshot opened by {@link #open(File)}, or a
+	 * {@link MappedFactStore}). The memory is not used after that.
+	 */
+	@Override
+	public void close() throws IOException {
+
+		if (store instanceof Closeable)
+			((Closeable) store).close();
+	}
+
 	/**
 	 * Return the software version.
 	 * 
@@ -228,9 +563,35 @@ public class Gilgamesh<T extends Serializable> implements Serializable {
 		fact(-1.0, Atom.convert(values));
 	}
 
+	/**
+	 * Starts a bulk load of facts, stored in batches (see {@link BulkLoader}). The loader must be closed, so its
+	 * last batch is stored.
+	 *
+	 * @return The loader, used by a single thread.
+	 */
+	public BulkLoader<T> bulkLoader() {
+
+		return new BulkLoader<T>(dictionary, store, gate, statistics, () -> log, () -> cache);
+	}
+
+	/**
+	 * Reinforces facts in bulk, with +1 to force each, as reinforce would do one by one.
+	 *
+	 * @param facts Atoms of each fact.
+	 * @return The quantity of facts created.
+	 */
+	public long bulkLoad(Iterator<T[]> facts) {
+
+		try (BulkLoader<T> loader = bulkLoader()) {
+			loader.reinforceAll(facts);
+			loader.flush();
+			return loader.getCreated();
+		}
+	}
+
 	/**
 	 * Make a explicit fact, with a defined force.
-	 * 
+	 *
 	 * @param force The force to be defined to the fact (or summed if the fact exists).
 	 * @param values List with atoms used to make that fact.
 	 */
@@ -266,14 +627,43 @@ public class Gilgamesh<T extends Serializable> implements Serializable {
 	 * 
 	 * @param fact The fact to be included.
 	 */
-	private synchronized void fact(Fact<T> fact) {
+	private void fact(Fact<T> fact) {
 
-		Fact<T> current = refresh(fact);
+		Instruments instruments = this.instruments;
+		long start = System.nanoTime();
+		int slot = gate.enter();
 		
-		current.force += fact.force;
+		instruments.wait.record(System.nanoTime() - start);
 		
-		for (Atom<T> atom : current.toAtoms())
-			refresh(atom).add(current.id);
+		try {
+			WriteAheadLog current = log;
+			
+			if (current != null)
+				current.write(fact, gate.sees(slot));
+			
+			long id = refresh(fact);
+			int links = ForceStatistics.links(store, Math.abs(id));
+			
+			if (id > 0) {
+				gate.create(slot, id);
+				statistics.create(links);
+				instruments.created.add(1);
+			}
+			else
+				id = -id;
+			
+			gate.change(slot, id, store);
+			statistics.change(links, fact.force, store.add(id, fact.force));
+			
+			AnswerCache cache = this.cache;
+			
+			if (cache != null)
+				instruments.invalidated.add(cache.invalidate(store, id));
+		}
+		finally {
+			gate.exit(slot);
+			instruments.fact.record(System.nanoTime() - start);
+		}
 	}
 
 	/**
@@ -295,8 +685,14 @@ public class Gilgamesh<T extends Serializable> implements Serializable {
 	 */
 	public boolean remove(Atom<T> ... values) {
 
+		AnswerCache cache = this.cache;
+		
 		for (Atom<T> atom : values)
 			atoms.remove(atom);
+		
+		if (cache != null)
+			cache.clear();
+		
 		return true;
 	}
 
@@ -344,19 +740,40 @@ public class Gilgamesh<T extends Serializable> implements Serializable {
 	 */
 	public Fact<T> answer(List<Atom<T>> values) {
 
-		TreeSet<Fact<T>> list = getAnswers(false, false, Atom.convert(values));
-		
-		if (list.size() > 0)
-			return list.iterator().next();
+		return answer(getQuestion(true, false, Atom.convert(Atom.convert(values))));
+	}
+	
+	private Fact<T> answer(Question question) {
 
-		list = getAnswers(true, false, Atom.convert(values));
+		long start = System.nanoTime();
+		Fact<T> answer = null;
 		
-		if (list.size() > 0) {
-			Fact<T> fact = list.iterator().next();
-			return new Fact<T>(0, fact.force / (double) values.size(), fact.time, fact.atoms);
+		if (question != null) {
+			
+			AnswerCache cache = this.cache;
+			AnswerCache.Key key = cache != null ? question.getKey(-1) : null;
+			Object cached = key != null ? cache.get(key) : null;
+			
+			if (cached != null) {
+				instruments.hits.add(1);
+				answer = (Fact<T>) cached;
+			}
+			else {
+				
+				long stamp = key != null ? cache.stamp(key) : 0;
+				answer = question.getBest();
+				
+				if (key != null && !question.isStopped()) {
+					instruments.misses.add(1);
+					
+					if (answer != null)
+						instruments.evicted.add(cache.put(key, stamp, answer, 1));
+				}
+			}
 		}
-
-		return null;
+		
+		instruments.answer.record(System.nanoTime() - start);
+		return answer;
 	}
 
 	/**
@@ -400,91 +817,799 @@ public class Gilgamesh<T extends Serializable> implements Serializable {
 	 */
 	public TreeSet<Fact<T>> getAnswers(boolean matchAny, boolean suppress, T ... questionValues) {
 
-		TreeSet<Fact<T>> answers = new TreeSet<Fact<T>>(Collections.reverseOrder());
-
-		if (atoms == null || atoms.size() <= 0)
-			return answers;
+		return getAnswers(getQuestion(matchAny, suppress, questionValues));
+	}
+	
+	private TreeSet<Fact<T>> getAnswers(Question question) {
 
-		HashSet<Atom<T>> questionAtoms = new HashSet<Atom<T>>();
+		long start = System.nanoTime();
+		TreeSet<Fact<T>> answers = new TreeSet<Fact<T>>(Collections.reverseOrder());
 
-		for (T questionValue : questionValues) {
+		if (question != null) {
 			
-			if (questionValue == null || !atoms.containsKey(questionValue))
-				continue;
+			AnswerCache cache = this.cache;
+			AnswerCache.Key key = cache != null ? question.getKey(0) : null;
+			Object cached = key != null ? cache.get(key) : null;
 			
-			questionAtoms.add(atoms.get(questionValue));
-		}
-
-		
-		for (Atom<T> questionAtom : questionAtoms) {
-			for (long factID : questionAtom.getFacts()) {
-
-				Fact<T> memoryFact = facts.get(factID);
+			if (cached != null) {
+				instruments.hits.add(1);
+				answers.addAll((TreeSet<Fact<T>>) cached);
+			}
+			else {
 				
-				double matches = 0.0;
+				long stamp = key != null ? cache.stamp(key) : 0;
+				long candidates[] = question.getCandidates();
 				
-				for (Atom<T> a1 : questionAtoms) {
-					for (T v2 : memoryFact.atoms)
-						matches += a1.equality(atoms.get(v2));
-				}
-
-				if(!matchAny && questionValues.length == matches || matchAny) {
-					
-					double force = matches * memoryFact.force;
-					Fact<T> answer = new Fact<T>(0, force, memoryFact.time, memoryFact.atoms);
-					answer = suppress? answer.suppress(questionValues) : answer;
-					answers.add(answer);
+				// Answers are added in candidate order either way, so ties are solved as in a single thread.
+				if (candidates.length < parallelThreshold)
+					question.answer(answers, candidates, 0, candidates.length);
+				else
+					answers.addAll(getPool().invoke(new AnswersTask(question, candidates, 0, candidates.length, getLeaf(candidates))));
+				
+				if (key != null && !question.isStopped()) {
+					instruments.misses.add(1);
+					instruments.evicted.add(cache.put(key, stamp, new TreeSet<Fact<T>>(answers), answers.size()));
 				}
 			}
 		}
 
+		instruments.answers.record(System.nanoTime() - start);
 		return answers;
 	}
-
-	public Atom<T>[] getAtoms() {
-
-		return atoms.values().toArray(new Atom[0]);
-	}
-
-	public Fact<T>[] getFacts() {
-
-		return facts.values().toArray(new Fact[0]);
+	
+	/**
+	 * Returns the best answers only, from the most to the least probable. Candidates are ranked in a bounded
+	 * heap, so only the answers returned are built, whatever the quantity of candidates.
+	 * 
+	 * @param size The maximum quantity of answers.
+	 * @param matchAny Indicates that answers can match any question atom (otherwise, they must match all).
+	 * @param suppress Indicates that answers should be combined, suppressing the atoms informed.
+	 * @param questionAtoms The question atoms.
+	 * @return The best answers, as the first ones of {@link #getAnswers(boolean, boolean, Atom...)}.
+	 */
+	public List<Fact<T>> topAnswers(int size, boolean matchAny, boolean suppress, Atom<T> ... questionAtoms) {
+		return topAnswers(size, matchAny, suppress, Atom.convert(questionAtoms));
 	}
-
+	
 	/**
-	 * Provides some statistic data from Gilgamesh Core memory.
+	 * Returns the best answers only, from the most to the least probable. Candidates are ranked in a bounded
+	 * heap, so only the answers returned are built, whatever the quantity of candidates.
 	 * 
-	 * @return A Statistics object, with some statistic information.
+	 * @param size The maximum quantity of answers.
+	 * @param matchAny Indicates that answers can match any question atom (otherwise, they must match all).
+	 * @param suppress Indicates that answers should be combined, suppressing the atoms informed.
+	 * @param questionValues The question atoms.
+	 * @return The best answers, as the first ones of {@link #getAnswers(boolean, boolean, Object...)}.
 	 */
-	public Statistics statistics() {
+	public List<Fact<T>> topAnswers(int size, boolean matchAny, boolean suppress, T ... questionValues) {
 
-		final ArrayList<Double> values = new ArrayList<Double>();
-
-		if (atoms == null || atoms.size() <= 0)
-			return new Statistics(0, 0, 0, 0);
-
-		for (Atom<T> atom : atoms.values())
-			for (long factID : atom.getFacts())
-				values.add(facts.get(factID).force);
-
-		double average = 0.0;
-		double sigma = 0.0;
-		double variance = 0.0;
-
-		for (double value : values)
-			average += value;
-
-		average /= values.size();
-
-		for (double value : values)
-			variance += Math.pow(average - value, 2);
+		return topAnswers(size, getQuestion(matchAny, suppress, questionValues));
+	}
+	
+	private List<Fact<T>> topAnswers(int size, Question question) {
 
-		variance /= values.size();
-		sigma = Math.sqrt(variance);
-		sigma = (sigma != sigma) ? 0.0 : sigma; // NaN
+		ArrayList<Fact<T>> answers = new ArrayList<Fact<T>>();
 
-		return new Statistics(values.size(), average, variance, sigma);
-	};
+		if (question == null || size <= 0)
+			return answers;
+		
+		AnswerCache cache = this.cache;
+		AnswerCache.Key key = cache != null ? question.getKey(size) : null;
+		Object cached = key != null ? cache.get(key) : null;
+		
+		if (cached != null) {
+			instruments.hits.add(1);
+			answers.addAll((List<Fact<T>>) cached);
+			return answers;
+		}
+		
+		long stamp = key != null ? cache.stamp(key) : 0;
+		AnswerHeap heap = question.getTop(question.getCandidates(), size);
+		
+		heap.sort();
+		
+		for (int i = 0; i < heap.size(); i++)
+			answers.add(question.getAnswer(heap.id(i), heap.force(i)));
+
+		if (key != null && !question.isStopped()) {
+			instruments.misses.add(1);
+			instruments.evicted.add(cache.put(key, stamp, new ArrayList<Fact<T>>(answers), answers.size()));
+		}
+
+		return answers;
+	}
+	
+	/**
+	 * Returns the single and most probable answer (see {@link #answer(Object...)}), answered by the query
+	 * executor. Cancelling the future stops the scoring of the question.
+	 * 
+	 * @param timeout The time given to the question, from now (0 for no limit). The best answer scored by then
+	 *            is returned, maybe not the best of all.
+	 * @param values The question atoms.
+	 * @return The answer, failed with a {@link RejectedExecutionException} if the executor is full.
+	 */
+	public CompletableFuture<Fact<T>> answerAsync(long timeout, TimeUnit unit, T ... values) {
+		
+		Question question = getQuestion(true, false, values);
+		
+		return submit(question, timeout, unit, () -> answer(question), null);
+	}
+	
+	/**
+	 * Returns the answers (see {@link #getAnswers(boolean, boolean, Object...)}), answered by the query executor.
+	 * Cancelling the future stops the scoring of the question.
+	 * 
+	 * @param timeout The time given to the question, from now (0 for no limit). The answers scored by then are
+	 *            returned, maybe not all of them.
+	 * @param questionValues The question atoms.
+	 * @return The answers, failed with a {@link RejectedExecutionException} if the executor is full.
+	 */
+	public CompletableFuture<TreeSet<Fact<T>>> getAnswersAsync(long timeout, TimeUnit unit, boolean matchAny, boolean suppress,
+			T ... questionValues) {
+		
+		Question question = getQuestion(matchAny, suppress, questionValues);
+		
+		return submit(question, timeout, unit, () -> getAnswers(question), new TreeSet<Fact<T>>(Collections.reverseOrder()));
+	}
+	
+	/**
+	 * Returns the best answers (see {@link #topAnswers(int, boolean, boolean, Object...)}), answered by the query
+	 * executor. Cancelling the future stops the scoring of the question.
+	 * 
+	 * @param timeout The time given to the question, from now (0 for no limit). The best answers scored by then
+	 *            are returned, maybe not the best of all.
+	 * @param questionValues The question atoms.
+	 * @return The best answers, failed with a {@link RejectedExecutionException} if the executor is full.
+	 */
+	public CompletableFuture<List<Fact<T>>> topAnswersAsync(long timeout, TimeUnit unit, int size, boolean matchAny,
+			boolean suppress, T ... questionValues) {
+		
+		Question question = getQuestion(matchAny, suppress, questionValues);
+		
+		return submit(question, timeout, unit, () -> topAnswers(size, question), new ArrayList<Fact<T>>());
+	}
+	
+	/**
+	 * Answers a question on the query executor. The question stops being scored when the future is cancelled or
+	 * its time is over.
+	 * 
+	 * @param none The answer of a question which cannot have answers.
+	 */
+	private <A> CompletableFuture<A> submit(Question question, long timeout, TimeUnit unit, Supplier<A> answer, A none) {
+		
+		if (question == null)
+			return CompletableFuture.completedFuture(none);
+		
+		Instruments instruments = this.instruments;
+		CompletableFuture<A> future = new CompletableFuture<A>();
+		long start = System.nanoTime();
+		
+		if (timeout > 0)
+			question.setDeadline(start + unit.toNanos(timeout));
+		
+		future.whenComplete((result, error) -> {
+			if (future.isCancelled()) {
+				instruments.cancelled.add(1);
+				question.cancel();
+			}
+		});
+		
+		boolean admitted = getExecutor().submit(question.getCost(), () -> {
+			
+			instruments.queued.record(System.nanoTime() - start);
+			
+			// Cancelled while waiting.
+			if (future.isDone())
+				return;
+			
+			try {
+				A result = answer.get();
+				
+				if (question.isExpired())
+					instruments.expired.add(1);
+				
+				future.complete(result);
+			}
+			catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		}, () -> {
+			instruments.rejected.add(1);
+			future.completeExceptionally(new RejectedExecutionException("Query executor shut down"));
+		});
+		
+		if (!admitted) {
+			instruments.rejected.add(1);
+			future.completeExceptionally(new RejectedExecutionException("Too many questions waiting"));
+		}
+		
+		return future;
+	}
+	
+	/**
+	 * Sets the pool used to score large questions in parallel.
+	 * 
+	 * @param pool The pool to be used (null to use the common pool).
+	 */
+	public void setPool(ForkJoinPool pool) {
+		
+		this.pool = pool;
+	}
+	
+	/**
+	 * Sets the quantity of candidate facts from which a question is scored in parallel. Smaller questions are
+	 * scored by the calling thread only, since splitting them costs more than it saves.
+	 * 
+	 * @param threshold The minimum quantity of candidates to go parallel (Integer.MAX_VALUE to never do it).
+	 */
+	public void setParallelThreshold(int threshold) {
+		
+		parallelThreshold = Math.max(1, threshold);
+	}
+	
+	/**
+	 * @return The load of the memory (facts and bytes read, time spent), or null if it was not loaded.
+	 */
+	public SnapshotProgress getStartup() {
+		
+		return startup;
+	}
+	
+	/**
+	 * Logs the facts given from now on, so they survive a crash (see {@link #recover(File, WriteAheadLog)}).
+	 * To be set before facts are given.
+	 * 
+	 * @param log The log of the memory, or null to log no more.
+	 */
+	public void setLog(WriteAheadLog log) {
+		
+		this.log = log;
+	}
+	
+	/**
+	 * Records the metrics of the memory in a registry (the global {@link MetricsRegistry}, by default).
+	 * 
+	 * @param metrics The registry, or {@link Metrics#NONE} to record nothing.
+	 */
+	public void setMetrics(Metrics metrics) {
+		
+		this.instruments = new Instruments(metrics);
+	}
+	
+	public Metrics getMetrics() {
+		
+		return instruments.metrics;
+	}
+	
+	/**
+	 * Caches the answers of the questions asked (see {@link #getAnswers(boolean, boolean, Object...)} and
+	 * {@link #topAnswers(int, boolean, boolean, Object...)}). A fact written invalidates the answers of the
+	 * questions whose atoms it holds.
+	 * 
+	 * @param capacity The quantity of answers kept, or 0 to cache no more.
+	 */
+	public void setCache(long capacity) {
+		
+		cache = capacity > 0 ? new AnswerCache(capacity) : null;
+	}
+	
+	/**
+	 * Sets the executor of the questions asked asynchronously.
+	 * 
+	 * @param executor The executor to be used (null to use the common one).
+	 */
+	public void setExecutor(QueryExecutor executor) {
+		
+		this.executor = executor;
+	}
+	
+	private QueryExecutor getExecutor() {
+		
+		return executor != null? executor : QueryExecutor.common();
+	}
+	
+	private ForkJoinPool getPool() {
+		
+		return pool != null? pool : ForkJoinPool.commonPool();
+	}
+	
+	/**
+	 * @return The quantity of candidates scored by each parallel task: a few tasks per pool thread.
+	 */
+	private int getLeaf(long candidates[]) {
+		
+		return Math.max(1, Math.min(parallelThreshold, candidates.length / (getPool().getParallelism() * 8)));
+	}
+	
+	/**
+	 * @return The question, or null if it cannot have answers.
+	 */
+	private Question getQuestion(boolean matchAny, boolean suppress, T ... questionValues) {
+		
+		int codes[] = new int[questionValues.length];
+		int count = 0;
+
+		for (int i = 0; i < questionValues.length; i++) {
+			
+			int code = codes[i] = dictionary.code(questionValues[i]);
+			
+			if (code < 0) {
+				
+				// A fact cannot hold an atom unknown by the memory.
+				if (!matchAny)
+					return null;
+				
+				continue;
+			}
+			
+			count++;
+		}
+		
+		if (count <= 0)
+			return null;
+		
+		// Repeated question atoms count once.
+		int questionCodes[] = Arrays.stream(codes).filter(code -> code >= 0).distinct().toArray();
+		
+		return new Question(questionCodes, codes, matchAny, suppress, questionValues);
+	}
+	
+	/**
+	 * A question asked to the memory: it finds its candidate facts and scores them.
+	 */
+	private final class Question {
+		
+		private static final int STRIDE = 256;
+		
+		private final int questionCodes[];
+		private final int valueCodes[];
+		private final boolean matchAny;
+		private final boolean suppress;
+		private final T questionValues[];
+		
+		/**
+		 * Cancellation and deadline (in nanoseconds) of a question asked asynchronously. Scoring loops check them
+		 * every {@link #STRIDE} candidates, and stop keeping the answers scored so far.
+		 */
+		private volatile boolean cancelled;
+		private volatile boolean expired;
+		private long deadline;
+		private boolean timed;
+		
+		/**
+		 * @param questionCodes The codes of the question atoms, without repetition.
+		 * @param valueCodes The codes of the question values, in order (-1 if unknown).
+		 */
+		private Question(int questionCodes[], int valueCodes[], boolean matchAny, boolean suppress, T ... questionValues) {
+			
+			this.questionCodes = questionCodes;
+			this.valueCodes = valueCodes;
+			this.matchAny = matchAny;
+			this.suppress = suppress;
+			this.questionValues = questionValues;
+		}
+		
+		private void setDeadline(long deadline) {
+			
+			this.deadline = deadline;
+			this.timed = true;
+		}
+		
+		private void cancel() {
+			
+			cancelled = true;
+		}
+		
+		/**
+		 * @return true if the question was cancelled or its time is over: its answers may be partial.
+		 */
+		private boolean isStopped() {
+			
+			if (!expired && timed && System.nanoTime() - deadline >= 0)
+				expired = true;
+			
+			return cancelled || expired;
+		}
+		
+		private boolean isExpired() {
+			
+			return expired;
+		}
+		
+		/**
+		 * @return The postings of the question atoms, as a measure of the cost of the question.
+		 */
+		private long getCost() {
+			
+			long cost = 0;
+			
+			for (int code : questionCodes)
+				cost += dictionary.get(code).getFacts().size();
+			
+			return cost;
+		}
+		
+		/**
+		 * @param size The quantity of answers asked (0 for all of them, -1 for the single answer).
+		 * @return The key of the question in the answer cache, or null if it is not cached.
+		 */
+		private AnswerCache.Key getKey(int size) {
+			
+			return AnswerCache.key(valueCodes, size, matchAny, suppress);
+		}
+		
+		/**
+		 * @return The IDs of the facts holding all question atoms (or any of them), without repetition.
+		 */
+		private long[] getCandidates() {
+			
+			PostingList.Cursor cursors[] = getCursors();
+			long candidates[] = matchAny? PostingList.union(cursors) : PostingList.intersect(cursors);
+			
+			instruments.candidates.record(candidates.length);
+			return candidates;
+		}
+		
+		private PostingList.Cursor[] getCursors() {
+			
+			Instruments instruments = Gilgamesh.this.instruments;
+			PostingList.Cursor cursors[] = new PostingList.Cursor[questionCodes.length];
+			
+			for (int i = 0; i < questionCodes.length; i++) {
+				cursors[i] = dictionary.get(questionCodes[i]).getFacts().cursor();
+				instruments.postings.record(cursors[i].size());
+			}
+			
+			return cursors;
+		}
+		
+		/**
+		 * Ranks the best answers of the candidates, in parallel if they are many.
+		 */
+		private AnswerHeap getTop(long candidates[], int size) {
+			
+			if (candidates.length >= parallelThreshold)
+				return getPool().invoke(new TopAnswersTask(this, candidates, 0, candidates.length, getLeaf(candidates), size));
+			
+			AnswerHeap heap = new AnswerHeap(size);
+			
+			answer(heap, candidates, 0, candidates.length);
+			return heap;
+		}
+		
+		/**
+		 * Finds the single most probable answer of a question asked with matchAny: the best fact matching all
+		 * question values, or else the best fact matching any of them, with its force divided by the quantity
+		 * of values. Both are tracked together, and each candidate is scored once: the facts holding all
+		 * question atoms (the intersection of the posting lists, found by seeking) are scored for both, and the
+		 * other facts of the lists only if none of these matches all values.
+		 * 
+		 * @return The answer, or null if no fact holds a question atom.
+		 */
+		private Fact<T> getBest() {
+			
+			PostingList.Cursor cursors[] = getCursors();
+			
+			// A fact cannot match all values if some of them are not atoms of the memory.
+			boolean known = true;
+			
+			for (int code : valueCodes)
+				known &= code >= 0;
+			
+			long common[] = known ? PostingList.intersect(cursors) : new long[0];
+			AnswerHeap heaps[];
+			
+			if (common.length >= parallelThreshold)
+				heaps = getPool().invoke(new BestAnswerTask(this, common, 0, common.length, getLeaf(common)));
+			else {
+				heaps = new AnswerHeap[] { new AnswerHeap(1), new AnswerHeap(1) };
+				best(heaps[0], heaps[1], common, 0, common.length);
+			}
+			
+			if (heaps[0].size() > 0) {
+				instruments.candidates.record(common.length);
+				return getAnswer(heaps[0].id(0), heaps[0].force(0));
+			}
+			
+			if (isStopped())
+				return getPartial(heaps[1]);
+			
+			long others[] = PostingList.subtract(PostingList.union(cursors), common);
+			
+			instruments.candidates.record(common.length + others.length);
+			heaps[1].offer(getTop(others, 1));
+			return getPartial(heaps[1]);
+		}
+		
+		/**
+		 * @return The best answer matching some question values, with its force divided by the quantity of
+		 *         values, or null if there is none.
+		 */
+		private Fact<T> getPartial(AnswerHeap any) {
+			
+			if (any.size() <= 0)
+				return null;
+			
+			Fact<T> fact = getAnswer(any.id(0), any.force(0));
+			return new Fact<T>(fact, fact.force / (double) questionValues.length);
+		}
+		
+		/**
+		 * Scores a range of candidates once, for the best fact matching all question values and the best one
+		 * matching any of them.
+		 */
+		private void best(AnswerHeap exact, AnswerHeap any, long candidates[], int from, int to) {
+			
+			for (int i = from; i < to; i++) {
+				
+				if ((i & (STRIDE - 1)) == 0 && isStopped())
+					break;
+				
+				double matches = getMatches(candidates[i]);
+				
+				if (matches < 0.0)
+					continue;
+				
+				double force = matches * store.force(candidates[i]);
+				long time = store.time(candidates[i]);
+				
+				if (matches == questionValues.length)
+					exact.offer(candidates[i], force, time);
+				
+				any.offer(candidates[i], force, time);
+			}
+		}
+		
+		private void answer(Collection<Fact<T>> answers, long candidates[], int from, int to) {
+			
+			for (int i = from; i < to; i++) {
+				
+				if ((i & (STRIDE - 1)) == 0 && isStopped())
+					break;
+				
+				double matches = getMatches(candidates[i]);
+				
+				if (matches >= 0.0)
+					answers.add(getAnswer(candidates[i], matches * store.force(candidates[i])));
+			}
+		}
+		
+		private void answer(AnswerHeap heap, long candidates[], int from, int to) {
+			
+			for (int i = from; i < to; i++) {
+				
+				if ((i & (STRIDE - 1)) == 0 && isStopped())
+					break;
+				
+				double matches = getMatches(candidates[i]);
+				
+				if (matches >= 0.0)
+					heap.offer(candidates[i], matches * store.force(candidates[i]), store.time(candidates[i]));
+			}
+		}
+		
+		/**
+		 * A fact answers a question when it matches all question atoms (or any, if allowed). A fact made of the
+		 * suppressed atoms only has nothing left to answer.
+		 * 
+		 * @return The question atoms matched by the fact, or -1 if the fact does not answer the question.
+		 */
+		private double getMatches(long id) {
+			
+			int length = store.length(id);
+			int matches = 0;
+			
+			for (int i = 0; i < length; i++) {
+				
+				int code = store.code(id, i);
+				
+				for (int questionCode : questionCodes)
+					if (questionCode == code)
+						matches++;
+			}
+			
+			if (!matchAny && questionValues.length != matches)
+				return -1.0;
+			
+			return !suppress || !isSuppressed(id, length)? matches : -1.0;
+		}
+		
+		/**
+		 * @return true if suppressing the question values leaves no atom of the fact.
+		 */
+		private boolean isSuppressed(long id, int length) {
+			
+			// Each value suppresses one atom at most, so longer facts never get here.
+			if (length > valueCodes.length)
+				return false;
+			
+			boolean removed[] = new boolean[length];
+			int count = 0;
+			
+			for (int value : valueCodes)
+				for (int i = 0; i < length; i++)
+					if (!removed[i] && value == store.code(id, i)) {
+						removed[i] = true;
+						count++;
+						break;
+					}
+			
+			return count == length;
+		}
+		
+		private Fact<T> getAnswer(long id, double force) {
+			
+			Fact<T> fact = dictionary.fact(id, force);
+			
+			return suppress? fact.suppress(force, questionValues) : fact;
+		}
+	}
+	
+	/**
+	 * Builds the answers of a range of candidates, splitting it while larger than the leaf size.
+	 */
+	private final class AnswersTask extends RecursiveTask<List<Fact<T>>> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final Question question;
+		private final long candidates[];
+		private final int from;
+		private final int to;
+		private final int leaf;
+		
+		private AnswersTask(Question question, long candidates[], int from, int to, int leaf) {
+			
+			this.question = question;
+			this.candidates = candidates;
+			this.from = from;
+			this.to = to;
+			this.leaf = leaf;
+		}
+		
+		@Override
+		protected List<Fact<T>> compute() {
+			
+			ArrayList<Fact<T>> answers = new ArrayList<Fact<T>>();
+			
+			if (to - from <= leaf) {
+				question.answer(answers, candidates, from, to);
+				return answers;
+			}
+			
+			int middle = (from + to) >>> 1;
+			AnswersTask first = new AnswersTask(question, candidates, from, middle, leaf);
+			first.fork();
+			List<Fact<T>> second = new AnswersTask(question, candidates, middle, to, leaf).compute();
+			
+			answers.addAll(first.join());
+			answers.addAll(second);
+			return answers;
+		}
+	}
+	
+	/**
+	 * Finds the best answer matching all question values and the best one matching any of them, in a range of
+	 * candidates, splitting it while larger than the leaf size.
+	 */
+	private final class BestAnswerTask extends RecursiveTask<AnswerHeap[]> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final Question question;
+		private final long candidates[];
+		private final int from;
+		private final int to;
+		private final int leaf;
+		
+		private BestAnswerTask(Question question, long candidates[], int from, int to, int leaf) {
+			
+			this.question = question;
+			this.candidates = candidates;
+			this.from = from;
+			this.to = to;
+			this.leaf = leaf;
+		}
+		
+		@Override
+		protected AnswerHeap[] compute() {
+			
+			if (to - from <= leaf) {
+				AnswerHeap heaps[] = { new AnswerHeap(1), new AnswerHeap(1) };
+				question.best(heaps[0], heaps[1], candidates, from, to);
+				return heaps;
+			}
+			
+			int middle = (from + to) >>> 1;
+			BestAnswerTask first = new BestAnswerTask(question, candidates, from, middle, leaf);
+			first.fork();
+			AnswerHeap heaps[] = new BestAnswerTask(question, candidates, middle, to, leaf).compute();
+			AnswerHeap other[] = first.join();
+			
+			heaps[0].offer(other[0]);
+			heaps[1].offer(other[1]);
+			return heaps;
+		}
+	}
+	
+	/**
+	 * Ranks the best answers of a range of candidates, splitting it while larger than the leaf size.
+	 */
+	private final class TopAnswersTask extends RecursiveTask<AnswerHeap> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final Question question;
+		private final long candidates[];
+		private final int from;
+		private final int to;
+		private final int leaf;
+		private final int size;
+		
+		private TopAnswersTask(Question question, long candidates[], int from, int to, int leaf, int size) {
+			
+			this.question = question;
+			this.candidates = candidates;
+			this.from = from;
+			this.to = to;
+			this.leaf = leaf;
+			this.size = size;
+		}
+		
+		@Override
+		protected AnswerHeap compute() {
+			
+			if (to - from <= leaf) {
+				AnswerHeap heap = new AnswerHeap(size);
+				question.answer(heap, candidates, from, to);
+				return heap;
+			}
+			
+			int middle = (from + to) >>> 1;
+			TopAnswersTask first = new TopAnswersTask(question, candidates, from, middle, leaf, size);
+			first.fork();
+			AnswerHeap heap = new TopAnswersTask(question, candidates, middle, to, leaf, size).compute();
+			
+			heap.offer(first.join());
+			return heap;
+		}
+	}
+
+	public Atom<T>[] getAtoms() {
+
+		return atoms.values().toArray(new Atom[0]);
+	}
+
+	public Fact<T>[] getFacts() {
+
+		ArrayList<Fact<T>> facts = new ArrayList<Fact<T>>();
+		
+		store.forEach(id -> facts.add(dictionary.fact(id, store.force(id))));
+		
+		return facts.toArray(new Fact[0]);
+	}
+
+	/**
+	 * Provides some statistic data from Gilgamesh Core memory.
+	 * 
+	 * @return A Statistics object, with some statistic information.
+	 */
+	public Statistics statistics() {
+
+		return statistics(false);
+	}
+
+	/**
+	 * Returns some statistics of the Gilgamesh Core memory: each fact force counts once per atom linked to it.
+	 * 
+	 * @param recompute Indicates that the statistics are computed again, walking the facts of each atom in
+	 *            parallel, instead of the ones kept as forces change (as a check of these).
+	 * @return A Statistics object, with some statistic information.
+	 */
+	public Statistics statistics(boolean recompute) {
+
+		return recompute ? ForceStatistics.walk(atoms.values(), store) : statistics.get();
+	}
 
 	
 }
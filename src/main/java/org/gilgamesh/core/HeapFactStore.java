@@ -0,0 +1,217 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * The default fact store: one object per fact, found by its atoms in a concurrent hash map and by its ID in
+ * pages of references.
+ *
+ * @author Eduardo Alevi
+ */
+public class HeapFactStore implements FactStore {
+
+	private static final int PAGE_BITS = 14;
+	private static final int PAGE = 1 << PAGE_BITS;
+	private static final int STRIPES = 64;
+
+	private final ConcurrentHashMap<Entry, Entry> index = new ConcurrentHashMap<Entry, Entry>();
+	private final AtomicLong sequence = new AtomicLong();
+	private final Object locks[] = new Object[STRIPES];
+	private volatile Entry pages[][] = new Entry[16][];
+
+
+	public HeapFactStore() {
+
+		for (int i = 0; i < locks.length; i++)
+			locks[i] = new Object();
+	}
+
+	@Override
+	public long find(int codes[]) {
+
+		Entry entry = index.get(new Entry(0, codes, 0));
+		return entry != null ? entry.id : 0;
+	}
+
+	/**
+	 * Writers of the same new fact are serialized on a lock stripe, so IDs are never wasted.
+	 */
+	@Override
+	public long insert(int codes[], long time) {
+
+		Entry entry = new Entry(0, codes, time);
+
+		synchronized (locks[entry.hash & (STRIPES - 1)]) {
+
+			Entry current = index.get(entry);
+
+			if (current != null)
+				return -current.id;
+
+			entry = new Entry(sequence.incrementAndGet(), codes.clone(), time);
+			page(entry.id)[(int) (entry.id & (PAGE - 1))] = entry;
+
+			// Published last: whoever finds the fact also finds it by its ID.
+			index.put(entry, entry);
+			return entry.id;
+		}
+	}
+
+	/**
+	 * Stores a fact in a given ID, with its force, while a memory is loaded. Facts are restored by any threads,
+	 * in any order, and the store is used once they are all restored.
+	 *
+	 * @throws IllegalArgumentException If the fact is already stored.
+	 */
+	void restore(long id, int codes[], long time, double force) {
+
+		Entry entry = new Entry(id, codes, time);
+		entry.force = force;
+
+		page(id)[(int) (id & (PAGE - 1))] = entry;
+
+		if (index.putIfAbsent(entry, entry) != null)
+			throw new IllegalArgumentException("Fact already stored: " + id);
+
+		sequence.accumulateAndGet(id, Math::max);
+	}
+
+	@Override
+	public double add(long id, double force) {
+
+		return get(id).add(force);
+	}
+
+	@Override
+	public double force(long id) {
+
+		return get(id).force;
+	}
+
+	@Override
+	public long time(long id) {
+
+		return get(id).time;
+	}
+
+	@Override
+	public int length(long id) {
+
+		return get(id).codes.length;
+	}
+
+	@Override
+	public int code(long id, int position) {
+
+		return get(id).codes[position];
+	}
+
+	@Override
+	public long size() {
+
+		return sequence.get();
+	}
+
+	@Override
+	public void forEach(LongConsumer action) {
+
+		long size = sequence.get();
+		Entry directory[][] = pages;
+
+		// Facts still being inserted are skipped.
+		for (long id = 1; id <= size; id++) {
+
+			int position = (int) (id >>> PAGE_BITS);
+
+			if (position < directory.length && directory[position] != null && directory[position][(int) (id & (PAGE - 1))] != null)
+				action.accept(id);
+		}
+	}
+
+	private Entry get(long id) {
+
+		return pages[(int) (id >>> PAGE_BITS)][(int) (id & (PAGE - 1))];
+	}
+
+	private Entry[] page(long id) {
+
+		int position = (int) (id >>> PAGE_BITS);
+		Entry directory[][] = pages;
+
+		if (position < directory.length && directory[position] != null)
+			return directory[position];
+
+		synchronized (this) {
+
+			directory = pages;
+
+			if (position >= directory.length)
+				directory = Arrays.copyOf(directory, Math.max(position + 1, directory.length << 1));
+
+			if (directory[position] == null)
+				directory[position] = new Entry[PAGE];
+
+			pages = directory;
+			return directory[position];
+		}
+	}
+
+	/**
+	 * A stored fact. Equal to another when their atoms are, whatever their forces.
+	 */
+	private static final class Entry {
+
+		private final long id;
+		private final int codes[];
+		private final int hash;
+		private final long time;
+		private volatile double force;
+
+		private Entry(long id, int codes[], long time) {
+
+			this.id = id;
+			this.codes = codes;
+			this.hash = FactStore.hash(codes);
+			this.time = time;
+		}
+
+		private synchronized double add(double force) {
+
+			return this.force += force;
+		}
+
+		@Override
+		public int hashCode() {
+
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+
+			return object instanceof Entry && Arrays.equals(codes, ((Entry) object).codes);
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of non negative values, in log-linear buckets (as HdrHistogram does): values below 16 are
+ * counted exactly, and each power of two above is split into 8 buckets, so percentiles are kept within 12.5% of
+ * the value. Recording is a bucket increment, whatever the quantity of values.
+ *
+ * @author Eduardo Alevi
+ */
+public final class Histogram implements Metrics.Recorder, MetricsRegistry.HistogramMBean {
+
+	private static final int LINEAR = 16;
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = LINEAR + (64 - 4) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	@Override
+	public void record(long value) {
+
+		if (value < 0)
+			value = 0;
+
+		buckets.incrementAndGet(index(value));
+		sum.add(value);
+
+		long current;
+
+		while (value > (current = max.get()) && !max.compareAndSet(current, value));
+	}
+
+	@Override
+	public long getCount() {
+
+		long count = 0;
+
+		for (int i = 0; i < BUCKETS; i++)
+			count += buckets.get(i);
+
+		return count;
+	}
+
+	@Override
+	public double getMean() {
+
+		long count = getCount();
+
+		return count > 0 ? sum.sum() / (double) count : 0.0;
+	}
+
+	@Override
+	public long getMax() {
+
+		return max.get();
+	}
+
+	@Override
+	public long getMedian() {
+
+		return getValueAtPercentile(50);
+	}
+
+	@Override
+	public long getPercentile90() {
+
+		return getValueAtPercentile(90);
+	}
+
+	@Override
+	public long getPercentile99() {
+
+		return getValueAtPercentile(99);
+	}
+
+	@Override
+	public long getPercentile999() {
+
+		return getValueAtPercentile(99.9);
+	}
+
+	/**
+	 * @param percentile The percentile, from 0 to 100.
+	 * @return The highest value of the bucket holding the percentile (never above the maximum recorded).
+	 */
+	public long getValueAtPercentile(double percentile) {
+
+		long counts[] = new long[BUCKETS];
+		long count = 0;
+
+		for (int i = 0; i < BUCKETS; i++)
+			count += counts[i] = buckets.get(i);
+
+		long target = Math.max(1, (long) Math.ceil(count * Math.min(100.0, percentile) / 100.0));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKETS && count > 0; i++)
+			if ((seen += counts[i]) >= target)
+				return Math.min(highest(i), getMax());
+
+		return 0;
+	}
+
+	@Override
+	public String toString() {
+
+		return String.format("count=%d mean=%.1f p50=%d p90=%d p99=%d p99.9=%d max=%d", getCount(), getMean(),
+				getValueAtPercentile(50), getValueAtPercentile(90), getValueAtPercentile(99),
+				getValueAtPercentile(99.9), getMax());
+	}
+
+	static int index(long value) {
+
+		if (value < LINEAR)
+			return (int) value;
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+
+		return LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @return The highest value counted in a bucket.
+	 */
+	static long highest(int index) {
+
+		if (index < LINEAR)
+			return index;
+
+		int exponent = (index - LINEAR) / SUB_BUCKETS + 4;
+		long lowest = (long) (SUB_BUCKETS + (index - LINEAR) % SUB_BUCKETS) << (exponent - SUB_BITS);
+
+		return lowest + (1L << (exponent - SUB_BITS)) - 1;
+	}
+}
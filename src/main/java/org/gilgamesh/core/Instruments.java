@@ -0,0 +1,100 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+/**
+ * The metrics a memory records, asked to its registry once.
+ *
+ * @author Eduardo Alevi
+ */
+final class Instruments {
+
+	final Metrics metrics;
+
+	/**
+	 * Latencies, in nanoseconds, of each fact written, each answer list and each single answer.
+	 */
+	final Metrics.Recorder fact;
+	final Metrics.Recorder answers;
+	final Metrics.Recorder answer;
+
+	/**
+	 * Candidate facts of each question, and the length of the posting list of each question atom.
+	 */
+	final Metrics.Recorder candidates;
+	final Metrics.Recorder postings;
+
+	/**
+	 * Nanoseconds a writer waits on the snapshot gate, and a snapshot waits for the writers.
+	 */
+	final Metrics.Recorder wait;
+
+	final Metrics.Counter created;
+
+	/**
+	 * Questions answered from the answer cache and not (cacheable ones only), entries invalidated by writes and
+	 * entries evicted.
+	 */
+	final Metrics.Counter hits;
+	final Metrics.Counter misses;
+	final Metrics.Counter invalidated;
+	final Metrics.Counter evicted;
+
+	/**
+	 * Nanoseconds a question asked asynchronously waits for a thread, and questions refused, cancelled and
+	 * answered partially as their time was over.
+	 */
+	final Metrics.Recorder queued;
+	final Metrics.Counter rejected;
+	final Metrics.Counter cancelled;
+	final Metrics.Counter expired;
+
+	/**
+	 * Saves and loads, in milliseconds, and their bytes.
+	 */
+	final Metrics.Recorder save;
+	final Metrics.Counter saved;
+	final Metrics.Recorder load;
+	final Metrics.Counter loaded;
+
+	Instruments(Metrics metrics) {
+
+		this.metrics = metrics;
+		this.fact = metrics.recorder("fact.nanos");
+		this.answers = metrics.recorder("answers.nanos");
+		this.answer = metrics.recorder("answer.nanos");
+		this.candidates = metrics.recorder("answers.candidates");
+		this.postings = metrics.recorder("postings.length");
+		this.wait = metrics.recorder("lock.wait.nanos");
+		this.created = metrics.counter("fact.created");
+		this.hits = metrics.counter("cache.hits");
+		this.misses = metrics.counter("cache.misses");
+		this.invalidated = metrics.counter("cache.invalidations");
+		this.evicted = metrics.counter("cache.evictions");
+		this.queued = metrics.recorder("async.wait.nanos");
+		this.rejected = metrics.counter("async.rejected");
+		this.cancelled = metrics.counter("async.cancelled");
+		this.expired = metrics.counter("async.expired");
+		this.save = metrics.recorder("save.millis");
+		this.saved = metrics.counter("save.bytes");
+		this.load = metrics.recorder("load.millis");
+		this.loaded = metrics.counter("load.bytes");
+	}
+}
@@ -0,0 +1,627 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Fact store kept off the heap, in files mapped in memory: the operating system page cache holds the working
+ * set, and a large memory opens again without reading its facts (see {@link Gilgamesh#Gilgamesh(FactStore)}).
+ * Atoms are kept too: their values, read on open, and their fact links, in chained blocks of IDs.
+ *
+ * Files of a store directory:
+ * <ul>
+ * <li><i>facts.map</i>: a header, then a row per fact ID (time, force bits, arena offset plus one).</li>
+ * <li><i>arena.map</i>: the length and the atom codes of each fact, as ints.</li>
+ * <li><i>index.map</i>: open addressing table of packed (hash, ID) slots, to find facts by their atoms.</li>
+ * <li><i>atoms.map</i>: a header, then a row per atom code (links count, first block, value offset).</li>
+ * <li><i>values.map</i>: the serialized atom values.</li>
+ * <li><i>postings.map</i>: the blocks of fact IDs linked to the atoms.</li>
+ * <li><i>statistics.map</i>: the statistics of the fact forces (see {@link ForceStatistics}), saved on close
+ * after the magic. A store not closed has them walked again on open.</li>
+ * </ul>
+ *
+ * Reads do not lock. New facts and new atoms are serialized on the store, the forces of a fact on a lock
+ * stripe, the links of an atom on its list. Files are written to disk on {@link #flush()} and {@link #close()}.
+ *
+ * @author Eduardo Alevi
+ */
+public class MappedFactStore implements FactStore, Closeable {
+
+	private static final long MAGIC = 0x474c474d46435431L;
+	private static final int ROW = 24;
+	private static final int ATOM = 32;
+	private static final int STRIPES = 64;
+	private static final long IDS = 0xffffffffL;
+	private static final long CAPACITY = 1024;
+
+	private final File directory;
+	private final MappedFile facts;
+	private final MappedFile arena;
+	private final MappedFile atoms;
+	private final MappedFile values;
+	private final MappedFile postings;
+	private final MappedFile statistics;
+	private final ForceStatistics forces = new ForceStatistics();
+	private final Object locks[] = new Object[STRIPES];
+	private final ArrayList<Links> links = new ArrayList<Links>();
+	private volatile Index index;
+	private volatile long size;
+	private long arenaSize;
+
+
+	/**
+	 * Opens a store, created empty if the directory does not hold one.
+	 *
+	 * @param directory The store directory.
+	 * @throws IOException If the store cannot be opened.
+	 */
+	public MappedFactStore(File directory) throws IOException {
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create directory " + directory);
+
+		this.directory = directory;
+		facts = new MappedFile(new File(directory, "facts.map"));
+		arena = new MappedFile(new File(directory, "arena.map"));
+		atoms = new MappedFile(new File(directory, "atoms.map"));
+		values = new MappedFile(new File(directory, "values.map"));
+		postings = new MappedFile(new File(directory, "postings.map"));
+		statistics = new MappedFile(new File(directory, "statistics.map"));
+		index = new Index(new MappedFile(new File(directory, "index.map")));
+
+		for (int i = 0; i < locks.length; i++)
+			locks[i] = new Object();
+
+		if (facts.getLong(0) == 0) {
+
+			facts.putLong(0, MAGIC);
+			atoms.putLong(0, MAGIC);
+			atoms.putLong(16, 0);
+			atoms.putLong(24, Long.BYTES);
+			index.file.putLong(0, CAPACITY);
+			index.capacity = CAPACITY;
+		}
+		else if (facts.getLong(0) != MAGIC || atoms.getLong(0) != MAGIC)
+			throw new IOException("Not a fact store: " + directory);
+
+		size = facts.getLong(8);
+		arenaSize = facts.getLong(16);
+
+		for (int code = 0; code < atoms.getLong(8); code++)
+			links.add(new Links(code));
+
+		// Statistics saved are cleared while the store is open: forces change.
+		if (statistics.getLong(0) == MAGIC) {
+			forces.add(statistics.getLong(8), statistics.getLong(16), Double.longBitsToDouble(statistics.getLong(24)),
+					Double.longBitsToDouble(statistics.getLong(32)), Double.longBitsToDouble(statistics.getLong(40)));
+			statistics.putLong(0, 0);
+			statistics.flush();
+		}
+		else
+			forEach(id -> forces.add(this, id, force(id)));
+	}
+
+	@Override
+	public long find(int codes[]) {
+
+		Index index = this.index;
+		int hash = FactStore.hash(codes);
+		long mask = index.capacity - 1;
+
+		for (long i = hash & mask; ; i = (i + 1) & mask) {
+
+			long slot = index.file.getLong(16 + (i << 3));
+
+			if (slot == 0)
+				return 0;
+
+			if ((int) (slot >>> 32) == hash && equals(slot & IDS, codes))
+				return slot & IDS;
+		}
+	}
+
+	@Override
+	public synchronized long insert(int codes[], long time) {
+
+		long id = find(codes);
+
+		if (id != 0)
+			return -id;
+
+		id = size + 1;
+
+		if (id > IDS)
+			throw new IllegalStateException("Fact store is full");
+
+		long offset = arenaSize;
+
+		arena.putInt(offset << 2, codes.length);
+
+		for (int i = 0; i < codes.length; i++)
+			arena.putInt((offset + 1 + i) << 2, codes[i]);
+
+		arenaSize += codes.length + 1;
+
+		facts.putLong(id * ROW, time);
+		facts.putLong(id * ROW + 8, Double.doubleToRawLongBits(0.0));
+		facts.putLong(id * ROW + 16, offset + 1);
+		put(FactStore.hash(codes), id);
+
+		facts.putLong(16, arenaSize);
+		facts.putLong(8, id);
+		size = id;
+		return id;
+	}
+
+	@Override
+	public double add(long id, double force) {
+
+		synchronized (locks[(int) (id & (STRIPES - 1))]) {
+			double sum = force(id) + force;
+			facts.putLong(id * ROW + 8, Double.doubleToRawLongBits(sum));
+			return sum;
+		}
+	}
+
+	@Override
+	public double force(long id) {
+
+		return Double.longBitsToDouble(facts.getLong(id * ROW + 8));
+	}
+
+	@Override
+	public long time(long id) {
+
+		return facts.getLong(id * ROW);
+	}
+
+	@Override
+	public int length(long id) {
+
+		return arena.getInt((facts.getLong(id * ROW + 16) - 1) << 2);
+	}
+
+	@Override
+	public int code(long id, int position) {
+
+		return arena.getInt((facts.getLong(id * ROW + 16) + position) << 2);
+	}
+
+	@Override
+	public long size() {
+
+		return size;
+	}
+
+	@Override
+	public void forEach(LongConsumer action) {
+
+		long size = this.size;
+
+		for (long id = 1; id <= size; id++)
+			if (facts.getLong(id * ROW + 16) != 0)
+				action.accept(id);
+	}
+
+	@Override
+	public synchronized void putAtom(int code, Serializable value) {
+
+		if (code != links.size())
+			throw new IllegalArgumentException("Atoms must be kept in code order: " + code);
+
+		try {
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream output = new ObjectOutputStream(bytes);
+			output.writeObject(value);
+			output.close();
+
+			long position = atoms.getLong(16);
+			values.putInt(position, bytes.size());
+			values.putBytes(position + Integer.BYTES, bytes.toByteArray());
+			atoms.putLong(16, position + Integer.BYTES + bytes.size());
+
+			long row = ATOM + (long) code * ATOM;
+			atoms.putLong(row, 0);
+			atoms.putLong(row + 8, 0);
+			atoms.putLong(row + 16, position);
+			atoms.putLong(8, code + 1);
+
+			links.add(new Links(code));
+		}
+		catch (IOException e) {
+			throw new IllegalArgumentException("Cannot keep atom " + value, e);
+		}
+	}
+
+	@Override
+	public synchronized List<Serializable> getAtoms() {
+
+		ArrayList<Serializable> list = new ArrayList<Serializable>();
+
+		try {
+
+			for (int code = 0; code < links.size(); code++) {
+
+				long position = atoms.getLong(ATOM + (long) code * ATOM + 16);
+				byte bytes[] = new byte[values.getInt(position)];
+				values.getBytes(position + Integer.BYTES, bytes);
+
+				ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes));
+				list.add((Serializable) input.readObject());
+				input.close();
+			}
+		}
+		catch (IOException | ClassNotFoundException e) {
+			throw new IllegalStateException("Cannot read the atoms of " + directory, e);
+		}
+
+		return list;
+	}
+
+	@Override
+	public synchronized Postings postings(int code) {
+
+		return links.get(code);
+	}
+
+	/**
+	 * @return The statistics of the facts, as saved on close (and then kept by the memory).
+	 */
+	@Override
+	public ForceStatistics statistics() {
+
+		return forces;
+	}
+
+	/**
+	 * Writes the changes of the store to disk.
+	 */
+	public synchronized void flush() {
+
+		for (MappedFile file : new MappedFile[] { facts, arena, atoms, values, postings, index.file })
+			file.flush();
+	}
+
+	/**
+	 * Writes the changes of the store to disk, with the statistics of the facts, and closes its files.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+
+		statistics.putLong(8, forces.zeros());
+		statistics.putLong(16, forces.links());
+		statistics.putLong(24, Double.doubleToRawLongBits(forces.shift()));
+		statistics.putLong(32, Double.doubleToRawLongBits(forces.sum()));
+		statistics.putLong(40, Double.doubleToRawLongBits(forces.squares()));
+		statistics.putLong(0, MAGIC);
+
+		for (MappedFile file : new MappedFile[] { facts, arena, atoms, values, postings, index.file, statistics })
+			file.close();
+	}
+
+	private boolean equals(long id, int codes[]) {
+
+		long offset = facts.getLong(id * ROW + 16) - 1;
+
+		// A fact still being inserted is not found yet: the insert looks for it again, locked.
+		if (offset < 0 || arena.getInt(offset << 2) != codes.length)
+			return false;
+
+		for (int i = 0; i < codes.length; i++)
+			if (arena.getInt((offset + 1 + i) << 2) != codes[i])
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * Puts a slot in the index. A full index is rebuilt in a new file, which then replaces the former one;
+	 * readers holding the former one still find what it has.
+	 */
+	private void put(int hash, long id) {
+
+		Index index = this.index;
+		long count = index.file.getLong(8);
+
+		if ((count + 1) * 4 > index.capacity * 3) {
+
+			try {
+
+				File file = new File(directory, "index.new");
+				Files.deleteIfExists(file.toPath());
+
+				Index larger = new Index(new MappedFile(file));
+
+				larger.capacity = index.capacity << 1;
+				larger.file.putLong(0, larger.capacity);
+
+				for (long i = 0; i < index.capacity; i++) {
+
+					long slot = index.file.getLong(16 + (i << 3));
+
+					if (slot != 0)
+						larger.put(slot);
+				}
+
+				larger.file.putLong(8, count);
+				larger.file.flush();
+				Files.move(file.toPath(), new File(directory, "index.map").toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+				this.index = larger;
+				index.file.close();
+				index = larger;
+			}
+			catch (IOException e) {
+				throw new IllegalStateException("Cannot grow the index of " + directory, e);
+			}
+		}
+
+		index.put(((long) hash << 32) | id);
+		index.file.putLong(8, count + 1);
+	}
+
+	/**
+	 * The index file and its capacity (a power of two).
+	 */
+	private static final class Index {
+
+		private final MappedFile file;
+		private long capacity;
+
+		private Index(MappedFile file) {
+
+			this.file = file;
+			this.capacity = file.getLong(0);
+		}
+
+		private void put(long slot) {
+
+			long mask = capacity - 1;
+			long i = (slot >>> 32) & mask;
+
+			while (file.getLong(16 + (i << 3)) != 0)
+				i = (i + 1) & mask;
+
+			file.putLong(16 + (i << 3), slot);
+		}
+	}
+
+	/**
+	 * IDs moved by an out of order insert, as they were before it: from a position to the size of the links.
+	 * Until the insert, it is the latest state of the links; once moved, cursors taken before it read the IDs
+	 * below the position from the next state.
+	 */
+	private static final class Moved {
+
+		private int from;
+		private long ids[];
+		private Moved next;
+	}
+
+	/**
+	 * The fact IDs linked to an atom, in blocks chained in the postings file. Blocks double from 4 to 16384
+	 * IDs, so the block of a position is computed, not searched; their offsets are kept on the heap too.
+	 *
+	 * Cursors read the blocks in place, a window at a time. Appends do not change what they read; IDs moved by
+	 * out of order inserts are kept on the heap for them (see {@link Moved}).
+	 */
+	private final class Links implements Postings {
+
+		private static final int BASE = 4;
+		private static final int GROWTH = 12;
+		private static final int BLOCK = BASE << GROWTH;
+		private static final int GROWING = BASE * ((1 << GROWTH) - 1);
+
+		private final long row;
+		private long blocks[] = new long[0];
+		private int size;
+		private Moved moved = new Moved();
+
+		/**
+		 * Reads the links of an atom, walking its blocks.
+		 */
+		private Links(int code) {
+
+			row = ATOM + (long) code * ATOM;
+			size = (int) atoms.getLong(row);
+
+			for (long block = atoms.getLong(row + 8); block != 0; block = postings.getLong(block)) {
+				blocks = Arrays.copyOf(blocks, blocks.length + 1);
+				blocks[blocks.length - 1] = block;
+			}
+		}
+
+		@Override
+		public synchronized boolean add(long id) {
+
+			int position = size;
+
+			if (size > 0 && get(size - 1) >= id) {
+
+				position = search(id);
+
+				if (position < 0)
+					return false;
+			}
+
+			if (size == capacity(blocks.length))
+				grow();
+
+			// Out of order IDs (from concurrent inserts) are recent, so few IDs are moved.
+			if (position < size) {
+
+				moved.from = position;
+				moved.ids = new long[size - position];
+				read(position, moved.ids, 0, moved.ids.length);
+				moved = moved.next = new Moved();
+			}
+
+			for (int i = size; i > position; i--)
+				set(i, get(i - 1));
+
+			set(position, id);
+			atoms.putLong(row, ++size);
+			return true;
+		}
+
+		@Override
+		public synchronized int size() {
+
+			return size;
+		}
+
+		@Override
+		public synchronized PostingList.Cursor cursor() {
+
+			Moved moved = this.moved;
+
+			return new PostingList.Cursor((from, ids, count) -> read(moved, from, ids, count), size);
+		}
+
+		/**
+		 * Reads IDs as they were in a state of the links.
+		 */
+		private synchronized void read(Moved moved, int from, long ids[], int count) {
+
+			for (; moved.next != null; moved = moved.next) {
+
+				// IDs from the position moved were kept, and the ones below it are read from the next state.
+				for (int i = Math.max(from, moved.from); i < from + count; i++)
+					ids[i - from] = moved.ids[i - moved.from];
+
+				count = Math.min(count, Math.max(0, moved.from - from));
+			}
+
+			read(from, ids, 0, count);
+		}
+
+		/**
+		 * Reads IDs in bulk, block by block.
+		 */
+		private void read(int position, long ids[], int offset, int count) {
+
+			while (count > 0) {
+
+				int length = Math.min(count, capacity(block(position) + 1) - position);
+
+				postings.getLongs(address(position), ids, offset, length);
+				position += length;
+				offset += length;
+				count -= length;
+			}
+		}
+
+		/**
+		 * @return The position of an ID to be inserted, or -1 if the ID is linked already.
+		 */
+		private int search(long id) {
+
+			int low = 0;
+			int high = size - 1;
+
+			while (low <= high) {
+
+				int middle = (low + high) >>> 1;
+				long value = get(middle);
+
+				if (value < id)
+					low = middle + 1;
+				else if (value > id)
+					high = middle - 1;
+				else
+					return -1;
+			}
+
+			return low;
+		}
+
+		private void grow() {
+
+			long length = Long.BYTES + (long) (capacity(blocks.length + 1) - capacity(blocks.length)) * Long.BYTES;
+			long block;
+
+			synchronized (postings) {
+				block = atoms.getLong(24);
+				atoms.putLong(24, block + length);
+			}
+
+			postings.putLong(block, 0);
+
+			if (blocks.length > 0)
+				postings.putLong(blocks[blocks.length - 1], block);
+			else
+				atoms.putLong(row + 8, block);
+
+			blocks = Arrays.copyOf(blocks, blocks.length + 1);
+			blocks[blocks.length - 1] = block;
+		}
+
+		private long get(int position) {
+
+			return postings.getLong(address(position));
+		}
+
+		private void set(int position, long id) {
+
+			postings.putLong(address(position), id);
+		}
+
+		private long address(int position) {
+
+			int block = block(position);
+
+			return blocks[block] + Long.BYTES + (long) (position - capacity(block)) * Long.BYTES;
+		}
+
+		/**
+		 * @return The block holding a position.
+		 */
+		private int block(int position) {
+
+			if (position < GROWING)
+				return 31 - Integer.numberOfLeadingZeros(position / BASE + 1);
+
+			return GROWTH + (position - GROWING) / BLOCK;
+		}
+
+		/**
+		 * @return The quantity of IDs held by the first blocks informed.
+		 */
+		private int capacity(int blocks) {
+
+			return blocks <= GROWTH ? BASE * ((1 << blocks) - 1) : GROWING + (blocks - GROWTH) * BLOCK;
+		}
+	}
+}
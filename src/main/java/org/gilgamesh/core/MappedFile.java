@@ -0,0 +1,182 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A file mapped in memory by segments, so it can grow past the 2 GB a single mapping holds. Segments are
+ * mapped when first used; the file grows a segment at a time.
+ *
+ * Values are little endian and aligned to their size, so none spans two segments. Absolute reads and writes
+ * do not lock; growing the file does.
+ *
+ * @author Eduardo Alevi
+ */
+class MappedFile implements Closeable {
+
+	private static final int SEGMENT_BITS = 26;
+	private static final int SEGMENT = 1 << SEGMENT_BITS;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private volatile MappedByteBuffer segments[] = new MappedByteBuffer[0];
+
+
+	MappedFile(File file) throws IOException {
+
+		this.file = new RandomAccessFile(file, "rw");
+		this.channel = this.file.getChannel();
+
+		map(Math.max(0, (channel.size() - 1) >> SEGMENT_BITS));
+	}
+
+	long getLong(long position) {
+
+		return segment(position).getLong((int) (position & (SEGMENT - 1)));
+	}
+
+	void putLong(long position, long value) {
+
+		segment(position).putLong((int) (position & (SEGMENT - 1)), value);
+	}
+
+	int getInt(long position) {
+
+		return segment(position).getInt((int) (position & (SEGMENT - 1)));
+	}
+
+	void putInt(long position, int value) {
+
+		segment(position).putInt((int) (position & (SEGMENT - 1)), value);
+	}
+
+	/**
+	 * Reads longs in bulk, segment by segment.
+	 */
+	void getLongs(long position, long values[], int offset, int length) {
+
+		while (length > 0) {
+
+			int count = (int) Math.min(length, (SEGMENT - (position & (SEGMENT - 1))) >> 3);
+			ByteBuffer segment = segment(position).duplicate();
+
+			segment.order(ByteOrder.LITTLE_ENDIAN).position((int) (position & (SEGMENT - 1)));
+			segment.asLongBuffer().get(values, offset, count);
+
+			position += (long) count << 3;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	void getBytes(long position, byte values[]) {
+
+		for (int offset = 0; offset < values.length; ) {
+
+			int count = (int) Math.min(values.length - offset, SEGMENT - (position & (SEGMENT - 1)));
+			ByteBuffer segment = segment(position).duplicate();
+
+			segment.position((int) (position & (SEGMENT - 1)));
+			segment.get(values, offset, count);
+
+			position += count;
+			offset += count;
+		}
+	}
+
+	void putBytes(long position, byte values[]) {
+
+		for (int offset = 0; offset < values.length; ) {
+
+			int count = (int) Math.min(values.length - offset, SEGMENT - (position & (SEGMENT - 1)));
+			ByteBuffer segment = segment(position).duplicate();
+
+			segment.position((int) (position & (SEGMENT - 1)));
+			segment.put(values, offset, count);
+
+			position += count;
+			offset += count;
+		}
+	}
+
+	/**
+	 * Writes the changes of the mapped segments to the file.
+	 */
+	void flush() {
+
+		for (MappedByteBuffer segment : segments)
+			segment.force();
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		flush();
+		channel.close();
+		file.close();
+	}
+
+	private MappedByteBuffer segment(long position) {
+
+		int index = (int) (position >>> SEGMENT_BITS);
+		MappedByteBuffer array[] = segments;
+
+		return index < array.length ? array[index] : map(index);
+	}
+
+	/**
+	 * Maps the segments up to the informed one, growing the file if needed.
+	 */
+	private synchronized MappedByteBuffer map(long index) {
+
+		MappedByteBuffer array[] = segments;
+
+		if (index < array.length)
+			return array[(int) index];
+
+		try {
+
+			if (channel.size() < (index + 1) << SEGMENT_BITS)
+				file.setLength((index + 1) << SEGMENT_BITS);
+
+			array = Arrays.copyOf(array, (int) index + 1);
+
+			for (int i = segments.length; i <= index; i++) {
+				array[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i << SEGMENT_BITS, SEGMENT);
+				array[i].order(ByteOrder.LITTLE_ENDIAN);
+			}
+
+			segments = array;
+			return array[(int) index];
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Cannot map file segment " + index, e);
+		}
+	}
+}
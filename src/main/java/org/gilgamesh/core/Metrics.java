@@ -0,0 +1,81 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+/**
+ * Registry of the metrics recorded by the Gilgamesh Core: counters and value distributions (latencies in
+ * nanoseconds, sizes). The memory asks its instruments once, when the registry is set, so a registry may bridge
+ * to another metrics library as well. Recording is on the hot paths: it must not block.
+ *
+ * @author Eduardo Alevi
+ * @see MetricsRegistry
+ */
+public interface Metrics {
+
+	/**
+	 * A registry which records nothing.
+	 */
+	public static final Metrics NONE = new Metrics() {
+
+		@Override
+		public Counter counter(String name) {
+
+			return value -> {};
+		}
+
+		@Override
+		public Recorder recorder(String name) {
+
+			return value -> {};
+		}
+
+		@Override
+		public String toString() {
+
+			return "Metrics disabled.";
+		}
+	};
+
+	/**
+	 * A monotonic total.
+	 */
+	public interface Counter {
+
+		void add(long value);
+	}
+
+	/**
+	 * A distribution of values.
+	 */
+	public interface Recorder {
+
+		void record(long value);
+	}
+
+	/**
+	 * @return The counter of the name, created on the first call.
+	 */
+	Counter counter(String name);
+
+	/**
+	 * @return The recorder of the name, created on the first call.
+	 */
+	Recorder recorder(String name);
+}
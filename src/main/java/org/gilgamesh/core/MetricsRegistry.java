@@ -0,0 +1,180 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * The metrics registry built in the Gilgamesh Core: counters are {@link LongAdder}s and recorders are
+ * {@link Histogram}s, and both may be published as JMX MBeans (<i>domain:type=Metrics,name=...</i>). Memories
+ * record in the global registry, unless another one is set.
+ *
+ * @author Eduardo Alevi
+ */
+public class MetricsRegistry implements Metrics {
+
+	private static final MetricsRegistry global = new MetricsRegistry();
+
+	private final ConcurrentSkipListMap<String, Object> metrics = new ConcurrentSkipListMap<String, Object>();
+	private String domain;
+
+	/**
+	 * Attributes of a counter, as a JMX MBean.
+	 */
+	public interface CounterMBean {
+
+		long getCount();
+	}
+
+	/**
+	 * Attributes of a histogram, as a JMX MBean.
+	 */
+	public interface HistogramMBean {
+
+		long getCount();
+
+		double getMean();
+
+		long getMax();
+
+		long getMedian();
+
+		long getPercentile90();
+
+		long getPercentile99();
+
+		long getPercentile999();
+	}
+
+	/**
+	 * @return The registry memories record in by default.
+	 */
+	public static MetricsRegistry getGlobal() {
+
+		return global;
+	}
+
+	@Override
+	public Metrics.Counter counter(String name) {
+
+		return (Metrics.Counter) metrics.computeIfAbsent(name, key -> publish(key, new Counter()));
+	}
+
+	@Override
+	public Histogram recorder(String name) {
+
+		return (Histogram) metrics.computeIfAbsent(name, key -> publish(key, new Histogram()));
+	}
+
+	/**
+	 * @return The metrics by name: counters as their totals, and histograms.
+	 */
+	public Map<String, Object> getMetrics() {
+
+		return metrics;
+	}
+
+	/**
+	 * Publishes the metrics as JMX MBeans in the platform server, the ones created from now on as well.
+	 *
+	 * @param domain The domain of the MBean names, eg.: org.gilgamesh.
+	 * @return false if the metrics were published already.
+	 */
+	public synchronized boolean publish(String domain) {
+
+		if (this.domain != null)
+			return false;
+
+		this.domain = domain;
+
+		for (Map.Entry<String, Object> entry : metrics.entrySet())
+			publish(entry.getKey(), entry.getValue());
+
+		return true;
+	}
+
+	private synchronized Object publish(String name, Object metric) {
+
+		if (domain == null)
+			return metric;
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName object = new ObjectName(domain + ":type=Metrics,name=" + ObjectName.quote(name));
+
+			if (!server.isRegistered(object))
+				server.registerMBean(metric instanceof Histogram ? new StandardMBean((Histogram) metric, HistogramMBean.class)
+						: new StandardMBean((Counter) metric, CounterMBean.class), object);
+		}
+		catch (Exception e) {
+			Logger.getGlobal().log(Level.SEVERE, "Cannot publish the metric " + name, e);
+		}
+
+		return metric;
+	}
+
+	/**
+	 * @return The metrics, one a line.
+	 */
+	@Override
+	public String toString() {
+
+		StringBuilder builder = new StringBuilder();
+
+		for (Map.Entry<String, Object> entry : metrics.entrySet())
+			builder.append(builder.length() > 0 ? "\n" : "").append(String.format("%-24s %s", entry.getKey(), entry.getValue()));
+
+		return builder.toString();
+	}
+
+	/**
+	 * A counter, as a {@link LongAdder}: adds do not contend among threads.
+	 */
+	static final class Counter implements Metrics.Counter, CounterMBean {
+
+		private final LongAdder total = new LongAdder();
+
+		@Override
+		public void add(long value) {
+
+			total.add(value);
+		}
+
+		@Override
+		public long getCount() {
+
+			return total.sum();
+		}
+
+		@Override
+		public String toString() {
+
+			return "count=" + getCount();
+		}
+	}
+}
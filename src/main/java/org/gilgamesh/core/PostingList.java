@@ -0,0 +1,348 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.LongConsumer;
+
+/**
+ * The fact IDs linked to an atom, as a sorted set of primitive longs.
+ *
+ * Writers are serialized on the list. Readers take a {@link Cursor} and walk it without locking: IDs are
+ * appended in place (the published prefix never changes) and the rare out of order insert copies the array.
+ *
+ * @author Eduardo Alevi
+ */
+public class PostingList implements Postings {
+
+	private static final int CAPACITY = 4;
+
+	private long ids[] = new long[CAPACITY];
+	private int size;
+
+
+	/**
+	 * Links a fact ID.
+	 *
+	 * @param id The fact ID.
+	 * @return false if the ID was already linked. true otherwise.
+	 */
+	@Override
+	public synchronized boolean add(long id) {
+
+		if (size > 0 && ids[size - 1] >= id) {
+
+			int position = Arrays.binarySearch(ids, 0, size, id);
+
+			if (position >= 0)
+				return false;
+
+			position = -position - 1;
+
+			long array[] = new long[grow(size + 1)];
+			System.arraycopy(ids, 0, array, 0, position);
+			System.arraycopy(ids, position, array, position + 1, size - position);
+			array[position] = id;
+
+			ids = array;
+			size++;
+			return true;
+		}
+
+		if (size == ids.length)
+			ids = Arrays.copyOf(ids, grow(size + 1));
+
+		ids[size++] = id;
+		return true;
+	}
+
+	/**
+	 * Links fact IDs, in ascending order: in a single copy if they all follow the IDs linked.
+	 */
+	@Override
+	public synchronized void addAll(long ids[], int from, int to) {
+
+		if (from >= to)
+			return;
+
+		if (size > 0 && this.ids[size - 1] >= ids[from]) {
+
+			for (int i = from; i < to; i++)
+				add(ids[i]);
+
+			return;
+		}
+
+		if (size + to - from > this.ids.length)
+			this.ids = Arrays.copyOf(this.ids, grow(size + to - from));
+
+		System.arraycopy(ids, from, this.ids, size, to - from);
+		size += to - from;
+	}
+
+	/**
+	 * @return The quantity of fact IDs linked.
+	 */
+	@Override
+	public synchronized int size() {
+
+		return size;
+	}
+
+	/**
+	 * @return A stable view of the fact IDs linked up to now.
+	 */
+	@Override
+	public synchronized Cursor cursor() {
+
+		return new Cursor(ids, size);
+	}
+
+	/**
+	 * Intersects posting lists. The rarest list drives the walk and the others are searched by galloping,
+	 * so the cost follows the rarest list, not the frequent ones.
+	 *
+	 * @param cursors The posting lists to be intersected.
+	 * @return The fact IDs present in all lists, in ascending order.
+	 */
+	public static long[] intersect(Cursor... cursors) {
+
+		if (cursors.length <= 0)
+			return new long[0];
+
+		Cursor sorted[] = cursors.clone();
+		Arrays.sort(sorted, Comparator.comparingInt(Cursor::size));
+
+		Cursor rarest = sorted[0];
+		int positions[] = new int[sorted.length];
+		long result[] = new long[rarest.size];
+		int count = 0;
+
+		candidates:
+		for (int i = 0; i < rarest.size; i++) {
+
+			long id = rarest.get(i);
+
+			for (int c = 1; c < sorted.length; c++) {
+
+				int position = positions[c] = sorted[c].seek(id, positions[c]);
+
+				if (position >= sorted[c].size)
+					break candidates;
+
+				if (sorted[c].get(position) != id)
+					continue candidates;
+			}
+
+			result[count++] = id;
+		}
+
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * Unites posting lists, merging them in a single pass.
+	 *
+	 * @param cursors The posting lists to be united.
+	 * @return The fact IDs present in any list, in ascending order and without repetition.
+	 */
+	public static long[] union(Cursor... cursors) {
+
+		int total = 0;
+
+		for (Cursor cursor : cursors)
+			total += cursor.size;
+
+		long result[] = new long[total];
+		int positions[] = new int[cursors.length];
+		int count = 0;
+
+		while (true) {
+
+			long id = Long.MAX_VALUE;
+			boolean found = false;
+
+			for (int c = 0; c < cursors.length; c++)
+				if (positions[c] < cursors[c].size && cursors[c].get(positions[c]) <= id) {
+					id = cursors[c].get(positions[c]);
+					found = true;
+				}
+
+			if (!found)
+				break;
+
+			for (int c = 0; c < cursors.length; c++)
+				if (positions[c] < cursors[c].size && cursors[c].get(positions[c]) == id)
+					positions[c]++;
+
+			result[count++] = id;
+		}
+
+		return count == total ? result : Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * @param ids Fact IDs, in ascending order.
+	 * @param removed Fact IDs, in ascending order.
+	 * @return The IDs not removed, in ascending order.
+	 */
+	static long[] subtract(long ids[], long removed[]) {
+
+		if (removed.length <= 0)
+			return ids;
+
+		long result[] = new long[ids.length];
+		int count = 0;
+
+		for (int i = 0, r = 0; i < ids.length; i++) {
+
+			while (r < removed.length && removed[r] < ids[i])
+				r++;
+
+			if (r >= removed.length || removed[r] != ids[i])
+				result[count++] = ids[i];
+		}
+
+		return Arrays.copyOf(result, count);
+	}
+
+	private int grow(int minimum) {
+
+		return Math.max(minimum, ids.length + (ids.length >> 1));
+	}
+
+	/**
+	 * Read only view of the fact IDs of a posting list, in ascending order: over an array of them, or over a
+	 * {@link Source} read ahead a window at a time. Windowed cursors are walked by a single thread.
+	 */
+	public static final class Cursor {
+
+		/**
+		 * IDs read ahead at most, by windowed cursors.
+		 */
+		static final int WINDOW = 512;
+
+		private final Source source;
+		private final int size;
+		private long ids[];
+		private int offset;
+		private int count;
+
+		Cursor(long ids[], int size) {
+
+			this.source = null;
+			this.ids = ids;
+			this.size = size;
+			this.count = size;
+		}
+
+		Cursor(Source source, int size) {
+
+			this.source = source;
+			this.ids = new long[Math.min(size, WINDOW)];
+			this.size = size;
+		}
+
+		public int size() {
+
+			return size;
+		}
+
+		public long get(int index) {
+
+			if (index - offset >= count || index < offset)
+				read(index);
+
+			return ids[index - offset];
+		}
+
+		public void forEach(LongConsumer action) {
+
+			for (int i = 0; i < size; i++)
+				action.accept(get(i));
+		}
+
+		/**
+		 * Galloping search: probes 1, 2, 4... positions ahead, then binary searches the last gap.
+		 *
+		 * @param id The fact ID to look for.
+		 * @param from The position to start from.
+		 * @return The first position, from the informed one, holding an ID equal or greater than the informed
+		 *         one (size if none).
+		 */
+		public int seek(long id, int from) {
+
+			if (from >= size || get(from) >= id)
+				return from;
+
+			int low = from;
+			int step = 1;
+			int high = from + 1;
+
+			while (high < size && get(high) < id) {
+				low = high;
+				step <<= 1;
+				high = from + step;
+			}
+
+			// The first ID not below the one looked for is past low, and at high or before.
+			high = Math.min(high, size);
+
+			while (low + 1 < high) {
+
+				int middle = (low + high) >>> 1;
+
+				if (get(middle) < id)
+					low = middle;
+				else
+					high = middle;
+			}
+
+			return high;
+		}
+
+		/**
+		 * Reads the window of an index.
+		 */
+		private void read(int index) {
+
+			if (source == null || index < 0 || index >= size)
+				throw new ArrayIndexOutOfBoundsException(index);
+
+			offset = index;
+			count = Math.min(ids.length, size - index);
+			source.read(index, ids, count);
+		}
+	}
+
+	/**
+	 * IDs read by windowed cursors, as they were when the cursor was taken.
+	 */
+	interface Source {
+
+		/**
+		 * @param from The position of the first ID.
+		 * @param ids The array the IDs are read into.
+		 * @param count The quantity of IDs.
+		 */
+		void read(int from, long ids[], int count);
+	}
+}
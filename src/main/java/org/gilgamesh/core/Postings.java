@@ -0,0 +1,72 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.util.function.LongConsumer;
+
+/**
+ * The fact IDs linked to an atom, as a sorted set. Kept on the heap by {@link PostingList}, or by the fact
+ * store itself (see {@link FactStore#postings(int)}).
+ *
+ * @author Eduardo Alevi
+ */
+public interface Postings {
+
+	/**
+	 * Links a fact ID.
+	 *
+	 * @param id The fact ID.
+	 * @return false if the ID was already linked. true otherwise.
+	 */
+	boolean add(long id);
+
+	/**
+	 * Links fact IDs, in ascending order.
+	 *
+	 * @param ids The fact IDs.
+	 * @param from The position of the first ID.
+	 * @param to The position after the last ID.
+	 */
+	default void addAll(long ids[], int from, int to) {
+
+		for (int i = from; i < to; i++)
+			add(ids[i]);
+	}
+
+	/**
+	 * @return The quantity of fact IDs linked.
+	 */
+	int size();
+
+	/**
+	 * @return A stable view of the fact IDs linked up to now.
+	 */
+	PostingList.Cursor cursor();
+
+	/**
+	 * Walks the fact IDs, in ascending order.
+	 *
+	 * @param action The action to be done with each fact ID.
+	 */
+	default void forEach(LongConsumer action) {
+
+		cursor().forEach(action);
+	}
+}
@@ -0,0 +1,218 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the questions asked asynchronously (see {@link Gilgamesh#answerAsync(long, TimeUnit, Object...)}) on threads
+ * of its own. A question is admitted while fewer than its capacity are waiting or running, and refused at once
+ * otherwise. Heavy questions, whose posting lists hold many facts, run on some of the threads only, so the light
+ * ones never wait behind them.
+ *
+ * @author Eduardo Alevi
+ */
+public final class QueryExecutor {
+
+	/**
+	 * Questions waiting and running per thread, and postings from which a question is heavy, by default.
+	 */
+	private static final int CAPACITY = 64;
+	private static final long HEAVY_COST = 65536;
+
+	private static final AtomicInteger executors = new AtomicInteger();
+
+	private final ThreadPoolExecutor threads;
+	private final Semaphore admitted;
+	private final int capacity;
+	private final ConcurrentLinkedQueue<Waiting> heavy = new ConcurrentLinkedQueue<Waiting>();
+	private final AtomicInteger running = new AtomicInteger();
+	private final int heavyThreads;
+	private final long heavyCost;
+
+
+	/**
+	 * Creates an executor admitting 64 questions per thread, whose heavy questions (of 65536 postings or more)
+	 * run on half of the threads (one at least).
+	 *
+	 * @param threads The quantity of threads.
+	 */
+	public QueryExecutor(int threads) {
+
+		this(threads, threads * CAPACITY, threads / 2, HEAVY_COST);
+	}
+
+	/**
+	 * @param threads The quantity of threads.
+	 * @param capacity The quantity of questions admitted, waiting or running.
+	 * @param heavyThreads The quantity of threads heavy questions may take (one at least).
+	 * @param heavyCost The quantity of postings (facts of the question atoms) from which a question is heavy.
+	 */
+	public QueryExecutor(int threads, int capacity, int heavyThreads, long heavyCost) {
+
+		int id = executors.incrementAndGet();
+		AtomicInteger count = new AtomicInteger();
+
+		this.threads = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				runnable -> {
+					Thread thread = new Thread(runnable, "gilgamesh-query-" + id + "-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		this.capacity = Math.max(1, capacity);
+		this.admitted = new Semaphore(this.capacity);
+		this.heavyThreads = Math.max(1, Math.min(threads, heavyThreads));
+		this.heavyCost = heavyCost;
+	}
+
+	/**
+	 * @return The executor of the memories given none, with a thread per processor.
+	 */
+	public static QueryExecutor common() {
+
+		return Common.EXECUTOR;
+	}
+
+	/**
+	 * Runs a question, unless the executor is full.
+	 *
+	 * @param cost The postings of the question.
+	 * @param refused Called if the question is refused once admitted: a heavy question still waiting when the
+	 *            executor is shut down.
+	 * @return false if the question was refused.
+	 */
+	boolean submit(long cost, Runnable question, Runnable refused) {
+
+		if (!admitted.tryAcquire())
+			return false;
+
+		Runnable task = () -> {
+			try {
+				question.run();
+			}
+			finally {
+				admitted.release();
+			}
+		};
+
+		if (cost >= heavyCost) {
+			heavy.add(new Waiting(task, refused));
+			drain();
+			return true;
+		}
+
+		try {
+			threads.execute(task);
+		}
+		catch (RejectedExecutionException e) {
+			admitted.release();
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Starts the heavy questions waiting while they run on fewer threads than allowed. A heavy question that
+	 * ends starts the next one. Once the executor is shut down, the ones waiting are refused.
+	 */
+	private void drain() {
+
+		while (!heavy.isEmpty()) {
+
+			int count = running.get();
+
+			if (count >= heavyThreads)
+				return;
+
+			if (!running.compareAndSet(count, count + 1))
+				continue;
+
+			Waiting waiting = heavy.poll();
+
+			if (waiting == null) {
+				running.decrementAndGet();
+				continue;
+			}
+
+			try {
+				threads.execute(() -> {
+					try {
+						waiting.task.run();
+					}
+					finally {
+						running.decrementAndGet();
+						drain();
+					}
+				});
+			}
+			catch (RejectedExecutionException e) {
+				running.decrementAndGet();
+				admitted.release();
+				waiting.refused.run();
+			}
+		}
+	}
+
+	/**
+	 * @return The quantity of questions waiting or running.
+	 */
+	public int getQueued() {
+
+		return capacity - admitted.availablePermits();
+	}
+
+	/**
+	 * Stops the threads once the questions running or waiting on them are answered. Heavy questions waiting for
+	 * their threads, and the ones asked from now on, are refused.
+	 */
+	public void shutdown() {
+
+		threads.shutdown();
+		drain();
+	}
+
+	/**
+	 * Heavy question waiting for a thread.
+	 */
+	private static final class Waiting {
+
+		private final Runnable task;
+		private final Runnable refused;
+
+
+		private Waiting(Runnable task, Runnable refused) {
+
+			this.task = task;
+			this.refused = refused;
+		}
+	}
+
+	private static final class Common {
+
+		private static final QueryExecutor EXECUTOR = new QueryExecutor(Runtime.getRuntime().availableProcessors());
+	}
+}
@@ -0,0 +1,579 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Binary snapshot of a memory, written in a single pass over a point in time view of its store (see
+ * {@link SnapshotGate}):
+ *
+ * <ul>
+ * <li>header: magic, version and the first {@link WriteAheadLog} segment whose facts are not in the snapshot
+ * (0 if none);</li>
+ * <li>dictionary: the quantity of atoms and their values, in code order (strings in UTF-8, other values in
+ * Java serialization);</li>
+ * <li>facts, in ID order, in blocks: the quantity of facts of the block (0 ends the section) and its bytes,
+ * holding for each fact the quantity of atoms, their codes, the force and the time (as a difference from the
+ * former fact time of the block);</li>
+ * <li>links, in atom code order: the quantity of facts of the atom and their IDs (as differences from the
+ * former one);</li>
+ * <li>index: the quantity of blocks, the position and size of the bytes of each one, and the position and
+ * quantity of links of each atom, in fixed size numbers;</li>
+ * <li>hashes: the hash of each fact (see {@link FactStore#hash(int[])}) and its ID, packed in a fixed size
+ * number, sorted;</li>
+ * <li>footer: the positions of the block and atom indexes and of the hashes, the quantity of facts, the
+ * statistics of their forces (see {@link ForceStatistics}) and the magic again;</li>
+ * <li>the CRC32 of all the former.</li>
+ * </ul>
+ *
+ * Numbers are variable length, and forces holding integers are kept as such. Blocks are decoded on their own,
+ * so they are loaded in parallel while the file is read, or read on demand by a {@link SnapshotFactStore},
+ * which finds them (and the links of each atom) by the index, and finds facts by their hashes.
+ *
+ * @author Eduardo Alevi
+ */
+final class Snapshot {
+
+	static final long MAGIC = 0x4749_4c47_534e_4150L; // "GILGSNAP"
+	static final int VERSION = 1;
+
+	/**
+	 * Footer size, and the size of an index entry.
+	 */
+	static final int FOOTER = 10 * Long.BYTES;
+	static final int ENTRY = Long.BYTES + Integer.BYTES;
+
+	private static final int STRING = 0;
+	private static final int OBJECT = 1;
+
+	/**
+	 * Facts of a block (all blocks but the last one are full).
+	 */
+	static final int BLOCK = 1 << 14;
+
+	private Snapshot() {
+	}
+
+	/**
+	 * @return true if the file starts as a snapshot (and not as a memory saved by Java serialization).
+	 */
+	static boolean isSnapshot(File file) throws IOException {
+
+		return version(file) > 0;
+	}
+
+	/**
+	 * @return The version of a snapshot file, or 0 if the file is not a snapshot.
+	 */
+	static int version(File file) throws IOException {
+
+		if (file.length() < Long.BYTES + Integer.BYTES)
+			return 0;
+
+		try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+			return input.readLong() == MAGIC ? input.readInt() : 0;
+		}
+	}
+
+	/**
+	 * Writes the facts of an epoch view of a store.
+	 *
+	 * @param mark The first log segment whose facts are not in the view.
+	 */
+	static void write(SnapshotOutput output, AtomDictionary<?> dictionary, FactStore store, SnapshotGate.Epoch epoch,
+			long mark, SnapshotProgress progress) throws IOException {
+
+		int count = epoch.atoms();
+
+		output.writeLong(MAGIC);
+		output.writeInt(VERSION);
+		output.writeVarLong(mark);
+		output.writeVarLong(count);
+
+		for (int code = 0; code < count; code++)
+			writeValue(output, dictionary.get(code).value);
+
+		Block block = new Block(new byte[BLOCK * 16], 0);
+		List<long[]> blocks = new ArrayList<long[]>();
+		long written[] = new long[1];
+		long hashes[][] = { new long[BLOCK] };
+		ForceStatistics statistics = new ForceStatistics();
+
+		try {
+			store.forEach(id -> {
+
+				if (!epoch.contains(id))
+					return;
+
+				double force = epoch.force(id, store);
+				int position = (int) (written[0] + block.count);
+
+				if (position == hashes[0].length)
+					hashes[0] = Arrays.copyOf(hashes[0], position * 2);
+
+				// The ID in the snapshot is the position of the fact plus one.
+				hashes[0][position] = ((long) hash(store, id) << 32) | (position + 1);
+
+				block.write(store, id, force);
+				statistics.add(store, id, force);
+
+				if (block.count == BLOCK)
+					try {
+						blocks.add(write(output, block));
+						progress.update(written[0] += BLOCK, output.position());
+					}
+					catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+			});
+		}
+		catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		written[0] += block.count;
+
+		if (block.count > 0)
+			blocks.add(write(output, block));
+
+		output.writeVarLong(0);
+
+		// Links of the view facts, which are all linked: their writers are done.
+		long links[] = new long[count];
+		int sizes[] = new int[count];
+		long excluded[] = epoch.excluded();
+
+		for (int code = 0; code < count; code++) {
+
+			PostingList.Cursor cursor = dictionary.get(code).getFacts().cursor();
+			long ids[] = new long[cursor.size()];
+			long previous = 0;
+
+			// Saved as the ID less the excluded IDs below it (the insertion point of the ID, negated).
+			for (int i = 0; i < ids.length; i++)
+				if (epoch.contains(cursor.get(i)))
+					ids[sizes[code]++] = cursor.get(i) + Arrays.binarySearch(excluded, cursor.get(i)) + 1;
+
+			links[code] = output.position();
+			output.writeVarLong(sizes[code]);
+
+			for (int i = 0; i < sizes[code]; i++) {
+				output.writeVarLong(ids[i] - previous);
+				previous = ids[i];
+			}
+		}
+
+		long index = output.position();
+		output.writeLong(blocks.size());
+
+		for (long entry[] : blocks) {
+			output.writeLong(entry[0]);
+			output.writeInt((int) entry[1]);
+		}
+
+		long atoms = output.position();
+
+		for (int code = 0; code < count; code++) {
+			output.writeLong(links[code]);
+			output.writeInt(sizes[code]);
+		}
+
+		long hashed = output.position();
+		long sorted[] = Arrays.copyOf(hashes[0], (int) written[0]);
+
+		hashes[0] = null;
+		Arrays.parallelSort(sorted);
+
+		for (long entry : sorted)
+			output.writeLong(entry);
+
+		output.writeLong(index);
+		output.writeLong(atoms);
+		output.writeLong(hashed);
+		output.writeLong(written[0]);
+		output.writeLong(statistics.zeros());
+		output.writeLong(statistics.links());
+		output.writeDouble(statistics.shift());
+		output.writeDouble(statistics.sum());
+		output.writeDouble(statistics.squares());
+		output.writeLong(MAGIC);
+		output.writeChecksum();
+		progress.update(written[0], output.position());
+	}
+
+	/**
+	 * @return The hash of a fact, as a store finds it.
+	 */
+	private static int hash(FactStore store, long id) {
+
+		int codes[] = new int[store.length(id)];
+
+		for (int i = 0; i < codes.length; i++)
+			codes[i] = store.code(id, i);
+
+		return FactStore.hash(codes);
+	}
+
+	/**
+	 * @return The position and size of the block bytes.
+	 */
+	private static long[] write(SnapshotOutput output, Block block) throws IOException {
+
+		output.writeVarLong(block.count);
+		output.writeVarLong(block.size);
+
+		long entry[] = { output.position(), block.size };
+
+		output.writeRaw(block.bytes, block.size);
+		block.clear();
+		return entry;
+	}
+
+	/**
+	 * Reads a snapshot into an empty memory: its atoms are coded again in the same codes and its facts are
+	 * given the same IDs. Blocks of facts are decoded and linked by a pool, while the file is read.
+	 *
+	 * @param statistics The statistics of the memory, given the ones of the facts read.
+	 * @return The first log segment whose facts are not in the snapshot.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T extends Serializable> long read(SnapshotInput input, AtomDictionary<T> dictionary, HeapFactStore store,
+			ForkJoinPool pool, SnapshotProgress progress, ForceStatistics statistics) throws IOException, ClassNotFoundException {
+
+		if (input.readLong() != MAGIC)
+			throw new IOException("Not a Gilgamesh snapshot");
+
+		int version = input.readInt();
+
+		if (version != VERSION)
+			throw new IOException("Unknown snapshot version " + version);
+
+		long mark = input.readVarLong();
+		int count = input.readLength();
+		Atom<T> atoms[] = new Atom[count];
+
+		for (int code = 0; code < count; code++)
+			if ((atoms[code] = dictionary.intern((T) readValue(input))).code != code)
+				throw new IOException("Repeated atom in snapshot: " + atoms[code].value);
+
+		read(input, atoms, store, pool, progress);
+		readFooter(input, statistics);
+		input.readChecksum();
+
+		return mark;
+	}
+
+	/**
+	 * Reads the blocks of facts of a snapshot, restoring them by a pool, and then the links of the atoms.
+	 */
+	private static void read(SnapshotInput input, Atom<?> atoms[], HeapFactStore store, ForkJoinPool pool,
+			SnapshotProgress progress) throws IOException {
+
+		List<ForkJoinTask<?>> blocks = new ArrayList<ForkJoinTask<?>>();
+		long read = 0;
+
+		for (int count; (count = input.readLength()) > 0; read += count) {
+
+			Block block = new Block(input.readBytes(), count);
+			long first = read + 1;
+
+			blocks.add(pool.submit(() -> {
+				block.restore(first, atoms.length, store::restore);
+				return null;
+			}));
+			progress.update(read, input.position());
+		}
+
+		readLinks(input, atoms, read);
+
+		for (ForkJoinTask<?> block : blocks)
+			join(block);
+
+		progress.update(read, input.position());
+	}
+
+	/**
+	 * Reads the links of the atoms, and skips the index and the hashes after them (of no use on a full load).
+	 *
+	 * @param facts The quantity of facts of the snapshot.
+	 */
+	private static void readLinks(SnapshotInput input, Atom<?> atoms[], long facts) throws IOException {
+
+		for (Atom<?> atom : atoms) {
+
+			long ids[] = new long[input.readLength()];
+			long id = 0;
+
+			for (int i = 0; i < ids.length; i++)
+				if ((ids[i] = id += input.readVarLong()) > facts)
+					throw new IOException("Unknown fact ID in snapshot: " + id);
+
+			atom.getFacts().addAll(ids, 0, ids.length);
+		}
+
+		long blocks = input.readLong();
+
+		for (long i = 0; i < blocks + atoms.length; i++) {
+			input.readLong();
+			input.readInt();
+		}
+
+		for (long i = 0; i < facts; i++)
+			input.readLong();
+
+	}
+
+	/**
+	 * Reads the footer: the statistics, and the rest is skipped.
+	 */
+	private static void readFooter(SnapshotInput input, ForceStatistics statistics) throws IOException {
+
+		for (int i = 0; i < 4; i++)
+			input.readLong();
+
+		long zeros = input.readLong();
+		long links = input.readLong();
+		double shift = input.readDouble();
+		double sum = input.readDouble();
+
+		statistics.add(zeros, links, shift, sum, input.readDouble());
+		input.readLong();
+	}
+
+	private static <V> V join(ForkJoinTask<V> task) throws IOException {
+
+		try {
+			return task.join();
+		}
+		catch (RuntimeException e) {
+
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+
+			throw e;
+		}
+	}
+
+	private static void writeValue(SnapshotOutput output, Serializable value) throws IOException {
+
+		if (value instanceof String) {
+			output.writeByte(STRING);
+			output.writeBytes(((String) value).getBytes(StandardCharsets.UTF_8));
+			return;
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (ObjectOutputStream stream = new ObjectOutputStream(bytes)) {
+			stream.writeObject(value);
+		}
+
+		output.writeByte(OBJECT);
+		output.writeBytes(bytes.toByteArray());
+	}
+
+	static Serializable readValue(SnapshotInput input) throws IOException, ClassNotFoundException {
+
+		int type = input.readByte();
+
+		if (type == STRING)
+			return new String(input.readBytes(), StandardCharsets.UTF_8);
+
+		if (type != OBJECT)
+			throw new IOException("Unknown atom type in snapshot: " + type);
+
+		try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(input.readBytes()))) {
+			return (Serializable) stream.readObject();
+		}
+	}
+
+	/**
+	 * Receiver of the facts of a block.
+	 */
+	interface Restorer {
+
+		void restore(long id, int codes[], long time, double force);
+	}
+
+	/**
+	 * A block of facts, written or read in memory. Forces are mostly sums of unit reinforcements: integers
+	 * below 2^52 are kept shifted, with a clear low bit, and the others in full, after a single set bit.
+	 */
+	static final class Block {
+
+		private byte bytes[];
+		private int size;
+		private int position;
+		private int count;
+		private long time;
+
+		Block(byte bytes[], int count) {
+
+			this.bytes = bytes;
+			this.size = count > 0 ? bytes.length : 0;
+			this.count = count;
+		}
+
+		void write(FactStore store, long id, double force) {
+
+			int length = store.length(id);
+			writeVarLong(length);
+
+			for (int i = 0; i < length; i++)
+				writeVarLong(store.code(id, i));
+
+			long integer = (long) force;
+
+			if (Math.abs(integer) < 1L << 52 && Double.doubleToLongBits(integer) == Double.doubleToLongBits(force))
+				writeVarLong(((integer << 1) ^ (integer >> 63)) << 1);
+			else {
+				writeVarLong(1);
+				writeLong(Double.doubleToRawLongBits(force));
+			}
+
+			long current = store.time(id);
+			long delta = current - time;
+
+			writeVarLong((delta << 1) ^ (delta >> 63));
+			time = current;
+			count++;
+		}
+
+		/**
+		 * Restores the facts of the block.
+		 *
+		 * @param first The ID of the first fact of the block.
+		 * @param atoms The quantity of atoms of the snapshot.
+		 */
+		void restore(long first, int atoms, Restorer restorer) throws IOException {
+
+			for (int i = 0; i < count; i++) {
+
+				long length = readVarLong();
+
+				if (length <= 0 || length > size - position)
+					throw new IOException("Corrupted snapshot block");
+
+				int codes[] = new int[(int) length];
+
+				for (int c = 0; c < codes.length; c++) {
+
+					long code = readVarLong();
+
+					if (code >= atoms)
+						throw new IOException("Unknown atom code in snapshot: " + code);
+
+					codes[c] = (int) code;
+				}
+
+				long value = readVarLong();
+				double force;
+
+				if ((value & 1) != 0)
+					force = Double.longBitsToDouble(readLong());
+				else {
+					value >>>= 1;
+					force = (value >>> 1) ^ -(value & 1);
+				}
+
+				value = readVarLong();
+				time += (value >>> 1) ^ -(value & 1);
+
+				restorer.restore(first + i, codes, time, force);
+			}
+
+			if (position != size)
+				throw new IOException("Corrupted snapshot block");
+		}
+
+		void clear() {
+
+			size = position = count = 0;
+			time = 0;
+		}
+
+		private void writeVarLong(long value) {
+
+			if (size + 10 > bytes.length)
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);
+
+			while ((value & ~0x7fL) != 0) {
+				bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+
+			bytes[size++] = (byte) value;
+		}
+
+		private void writeLong(long value) {
+
+			if (size + Long.BYTES > bytes.length)
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);
+
+			for (int i = 0; i < Long.BYTES; i++, value >>>= 8)
+				bytes[size++] = (byte) value;
+		}
+
+		private long readLong() throws IOException {
+
+			if (position + Long.BYTES > size)
+				throw new IOException("Corrupted snapshot block");
+
+			long value = 0;
+
+			for (int i = 0; i < Long.BYTES; i++)
+				value |= (bytes[position++] & 0xffL) << (i * 8);
+
+			return value;
+		}
+
+		private long readVarLong() throws IOException {
+
+			long value = 0;
+
+			for (int shift = 0; shift < 64 && position < size; shift += 7) {
+
+				byte current = bytes[position++];
+				value |= (long) (current & 0x7f) << shift;
+
+				if (current >= 0)
+					return value;
+			}
+
+			throw new IOException("Corrupted snapshot block");
+		}
+	}
+}
@@ -0,0 +1,536 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+
+/**
+ * Fact store opened on demand from a snapshot (see {@link Gilgamesh#open(File)}): only the atom values and the
+ * snapshot index are read on open. Blocks of facts and links of atoms are read on first touch, and kept in
+ * caches bounded by their weight, which evict the cold ones (see {@link ClockCache}).
+ *
+ * The snapshot file is never written: new facts are kept on the heap, after the ones of the snapshot, and the
+ * forces summed to these ones aside. The snapshot checksum is not verified on open, as its facts are not read.
+ *
+ * @author Eduardo Alevi
+ */
+public class SnapshotFactStore implements FactStore, Closeable {
+
+	private static final long CACHE = 256L << 20;
+	private static final long EMPTY[] = {};
+
+	/**
+	 * Entries of a page of the hashes.
+	 */
+	private static final int HASHES = 1 << 9;
+
+	private final FileChannel channel;
+	private final long checkpoint;
+	private final List<Serializable> atoms;
+	private final long facts;
+	private final long blocks[];
+	private final int sizes[];
+	private final long links[];
+	private final int counts[];
+	private final long end;
+	private final long hashed;
+	private final ClockCache<Page> pages;
+	private final ClockCache<long[]> postings;
+	private final ClockCache<long[]> hashes;
+	private final ConcurrentHashMap<Long, Double> forces = new ConcurrentHashMap<Long, Double>();
+	private final HeapFactStore added = new HeapFactStore();
+	private final ForceStatistics statistics = new ForceStatistics();
+
+
+	/**
+	 * Opens a snapshot, caching up to 256 MB of its facts and links.
+	 *
+	 * @param file The snapshot file (see {@link Gilgamesh#save(File, Gilgamesh)}).
+	 * @throws IOException If the file is not a snapshot of the current version.
+	 */
+	public SnapshotFactStore(File file) throws IOException {
+
+		this(file, CACHE);
+	}
+
+	/**
+	 * @param file The snapshot file (see {@link Gilgamesh#save(File, Gilgamesh)}).
+	 * @param cache The bytes of facts and links kept on the heap (about).
+	 * @throws IOException If the file is not a snapshot of the current version.
+	 */
+	public SnapshotFactStore(File file, long cache) throws IOException {
+
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+		try {
+			long size = channel.size();
+
+			if (size < Long.BYTES + Integer.BYTES + Snapshot.FOOTER + Long.BYTES)
+				throw new IOException("Not a Gilgamesh snapshot");
+
+			ByteBuffer footer = read(size - Long.BYTES - Snapshot.FOOTER, Snapshot.FOOTER);
+			long index = footer.getLong();
+			long atomsIndex = footer.getLong();
+			hashed = footer.getLong();
+			facts = footer.getLong();
+			statistics.add(footer.getLong(), footer.getLong(), footer.getDouble(), footer.getDouble(), footer.getDouble());
+
+			if (footer.getLong() != Snapshot.MAGIC)
+				throw new IOException("Not a Gilgamesh snapshot of version " + Snapshot.VERSION);
+
+			SnapshotInput input = new SnapshotInput(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+
+			try {
+				if (input.readLong() != Snapshot.MAGIC || input.readInt() != Snapshot.VERSION)
+					throw new IOException("Not a Gilgamesh snapshot of version " + Snapshot.VERSION);
+
+				checkpoint = input.readVarLong();
+				int count = input.readLength();
+				List<Serializable> values = new ArrayList<Serializable>(count);
+
+				for (int code = 0; code < count; code++)
+					values.add(Snapshot.readValue(input));
+
+				atoms = Collections.unmodifiableList(values);
+			}
+			catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+			finally {
+				input.close();
+			}
+
+			if (index < 0 || atomsIndex < index || atomsIndex > size)
+				throw new IOException("Corrupted snapshot index");
+
+			long count = read(index, Long.BYTES).getLong();
+
+			if (count < 0 || count != (facts + Snapshot.BLOCK - 1) / Snapshot.BLOCK
+					|| index + Long.BYTES + count * Snapshot.ENTRY != atomsIndex
+					|| atomsIndex + (long) atoms.size() * Snapshot.ENTRY != hashed
+					|| hashed + facts * Long.BYTES != size - Long.BYTES - Snapshot.FOOTER)
+				throw new IOException("Corrupted snapshot index");
+
+			blocks = new long[(int) count];
+			sizes = new int[blocks.length];
+			links = new long[atoms.size()];
+			counts = new int[links.length];
+			end = index;
+
+			ByteBuffer entries = read(index + Long.BYTES, blocks.length * Snapshot.ENTRY);
+
+			for (int i = 0; i < blocks.length; i++) {
+				blocks[i] = entries.getLong();
+				sizes[i] = entries.getInt();
+			}
+
+			entries = read(atomsIndex, links.length * Snapshot.ENTRY);
+
+			for (int i = 0; i < links.length; i++) {
+				links[i] = entries.getLong();
+				counts[i] = entries.getInt();
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+
+		pages = new ClockCache<Page>(blocks.length, cache / 2, this::page, Page::weight);
+		postings = new ClockCache<long[]>(links.length, cache / 4, this::links, ids -> 16L + ids.length * Long.BYTES);
+		hashes = new ClockCache<long[]>((int) ((facts + HASHES - 1) / HASHES), cache / 4, this::hashes,
+				entries -> 16L + entries.length * Long.BYTES);
+	}
+
+	/**
+	 * @return The first log segment whose facts are not in the snapshot.
+	 */
+	public long getCheckpoint() {
+
+		return checkpoint;
+	}
+
+	@Override
+	public long find(int codes[]) {
+
+		long id = added.find(codes);
+
+		if (id != 0)
+			return facts + id;
+
+		for (int code : codes)
+			if (code >= counts.length)
+				return 0;
+
+		if (facts == 0)
+			return 0;
+
+		int hash = FactStore.hash(codes);
+		int last = (int) ((facts - 1) / HASHES);
+
+		// Hashes are spread evenly, so the page of a hash is guessed from its value, and then walked to.
+		int page = (int) ((((long) hash - Integer.MIN_VALUE) * (last + 1)) >>> 32);
+		long entries[] = hashes.get(page);
+
+		while (page > 0 && hash <= (int) (entries[0] >> 32))
+			entries = hashes.get(--page);
+
+		while (page < last && hash > (int) (entries[entries.length - 1] >> 32))
+			entries = hashes.get(++page);
+
+		int position = Arrays.binarySearch(entries, (long) hash << 32);
+
+		for (position = position >= 0 ? position : -position - 1; ; position = 0) {
+
+			for (; position < entries.length; position++) {
+
+				if ((int) (entries[position] >> 32) != hash)
+					return 0;
+
+				if (matches(entries[position] & 0xffffffffL, codes))
+					return entries[position] & 0xffffffffL;
+			}
+
+			if (page == last)
+				return 0;
+
+			entries = hashes.get(++page);
+		}
+	}
+
+	@Override
+	public long insert(int codes[], long time) {
+
+		long id = find(codes);
+
+		if (id > 0 && id <= facts)
+			return -id;
+
+		id = added.insert(codes, time);
+		return id > 0 ? facts + id : -(facts - id);
+	}
+
+	@Override
+	public double add(long id, double force) {
+
+		if (id > facts)
+			return added.add(id - facts, force);
+
+		return page(id).forces[offset(id)] + forces.merge(id, force, Double::sum);
+	}
+
+	@Override
+	public double force(long id) {
+
+		if (id > facts)
+			return added.force(id - facts);
+
+		Double force = forces.get(id);
+		double base = page(id).forces[offset(id)];
+
+		return force == null ? base : base + force;
+	}
+
+	@Override
+	public long time(long id) {
+
+		return id > facts ? added.time(id - facts) : page(id).times[offset(id)];
+	}
+
+	@Override
+	public int length(long id) {
+
+		return id > facts ? added.length(id - facts) : page(id).codes[offset(id)].length;
+	}
+
+	@Override
+	public int code(long id, int position) {
+
+		return id > facts ? added.code(id - facts, position) : page(id).codes[offset(id)][position];
+	}
+
+	@Override
+	public long size() {
+
+		return facts + added.size();
+	}
+
+	@Override
+	public void forEach(LongConsumer action) {
+
+		for (long id = 1; id <= facts; id++)
+			action.accept(id);
+
+		added.forEach(id -> action.accept(facts + id));
+	}
+
+	@Override
+	public List<Serializable> getAtoms() {
+
+		return atoms;
+	}
+
+	@Override
+	public Postings postings(int code) {
+
+		return code < links.length ? new Links(code) : new PostingList();
+	}
+
+	/**
+	 * @return The statistics of the snapshot facts, as saved (and then kept by the memory).
+	 */
+	@Override
+	public ForceStatistics statistics() {
+
+		return statistics;
+	}
+
+	/**
+	 * @return The bytes of facts and links kept on the heap (about).
+	 */
+	public long getCached() {
+
+		return pages.weight() + postings.weight();
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		channel.close();
+	}
+
+	private boolean matches(long id, int codes[]) {
+
+		int stored[] = page(id).codes[offset(id)];
+
+		if (stored.length != codes.length)
+			return false;
+
+		for (int i = 0; i < codes.length; i++)
+			if (stored[i] != codes[i])
+				return false;
+
+		return true;
+	}
+
+	private Page page(long id) {
+
+		return pages.get((int) ((id - 1) / Snapshot.BLOCK));
+	}
+
+	private static int offset(long id) {
+
+		return (int) ((id - 1) % Snapshot.BLOCK);
+	}
+
+	/**
+	 * Loads a block of facts.
+	 */
+	private Page page(int block) {
+
+		long first = (long) block * Snapshot.BLOCK + 1;
+		Page page = new Page((int) Math.min(Snapshot.BLOCK, facts - first + 1));
+
+		try {
+			byte bytes[] = new byte[sizes[block]];
+			read(blocks[block], bytes.length).get(bytes);
+
+			new Snapshot.Block(bytes, page.times.length).restore(first, links.length, (id, codes, time, force) -> {
+				int i = (int) (id - first);
+				page.codes[i] = codes;
+				page.times[i] = time;
+				page.forces[i] = force;
+			});
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		return page;
+	}
+
+	/**
+	 * Loads a page of the hashes.
+	 */
+	private long[] hashes(int page) {
+
+		long first = (long) page * HASHES;
+		long entries[] = new long[(int) Math.min(HASHES, facts - first)];
+
+		try {
+			read(hashed + first * Long.BYTES, entries.length * Long.BYTES).asLongBuffer().get(entries);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Loads the links of an atom: their quantity and the deltas of the fact IDs.
+	 */
+	private long[] links(int code) {
+
+		long next = code + 1 < links.length ? links[code + 1] : end;
+
+		try {
+			if (next < links[code] || next - links[code] > Integer.MAX_VALUE)
+				throw new IOException("Corrupted snapshot index");
+
+			ByteBuffer buffer = read(links[code], (int) (next - links[code]));
+
+			if (readVarLong(buffer) != counts[code])
+				throw new IOException("Corrupted snapshot links");
+
+			long ids[] = new long[counts[code]];
+
+			for (int i = 0; i < ids.length; i++)
+				ids[i] = (i > 0 ? ids[i - 1] : 0) + readVarLong(buffer);
+
+			return ids;
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("Truncated snapshot");
+
+		buffer.flip();
+		return buffer;
+	}
+
+	private static long readVarLong(ByteBuffer buffer) throws IOException {
+
+		long value = 0;
+
+		for (int shift = 0; shift < Long.SIZE; shift += 7) {
+
+			if (!buffer.hasRemaining())
+				throw new IOException("Corrupted snapshot links");
+
+			byte current = buffer.get();
+			value |= (long) (current & 0x7f) << shift;
+
+			if (current >= 0)
+				return value;
+		}
+
+		throw new IOException("Corrupted snapshot links");
+	}
+
+	/**
+	 * Facts of a block, decoded.
+	 */
+	private static final class Page {
+
+		private final int codes[][];
+		private final long times[];
+		private final double forces[];
+
+		private Page(int count) {
+
+			codes = new int[count][];
+			times = new long[count];
+			forces = new double[count];
+		}
+
+		private long weight() {
+
+			long weight = 64 + times.length * 40L;
+
+			for (int fact[] : codes)
+				weight += fact.length * Integer.BYTES;
+
+			return weight;
+		}
+	}
+
+	/**
+	 * Links of an atom: the ones of the snapshot, read on demand, then the ones of the new facts.
+	 */
+	private final class Links implements Postings {
+
+		private final int code;
+		private final PostingList added = new PostingList();
+
+		private Links(int code) {
+
+			this.code = code;
+		}
+
+		@Override
+		public boolean add(long id) {
+
+			// Facts of the snapshot are linked already.
+			return id > facts && added.add(id);
+		}
+
+		@Override
+		public int size() {
+
+			return counts[code] + added.size();
+		}
+
+		@Override
+		public PostingList.Cursor cursor() {
+
+			long base[] = counts[code] > 0 ? postings.get(code) : EMPTY;
+
+			if (added.size() == 0)
+				return new PostingList.Cursor(base, base.length);
+
+			PostingList.Cursor cursor = added.cursor();
+
+			// New facts follow the ones of the snapshot: both lists are read in turn, a window at a time.
+			return new PostingList.Cursor((from, ids, count) -> {
+
+				int length = Math.max(0, Math.min(count, base.length - from));
+
+				if (length > 0)
+					System.arraycopy(base, from, ids, 0, length);
+
+				for (int i = length; i < count; i++)
+					ids[i] = cursor.get(from + i - base.length);
+
+			}, base.length + cursor.size());
+		}
+	}
+}
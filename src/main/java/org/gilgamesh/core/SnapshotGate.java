@@ -0,0 +1,232 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Point in time views of a memory, taken while writers go on.
+ *
+ * Writers enter the gate in one of two phases, counted in padded stripes. An {@link Epoch} starts by being
+ * published for the next phase and flipping to it: once the former phase is drained, every writer left sees
+ * the epoch, and keeps in it the force a fact had before its first change (copy on write) and the facts it
+ * created. The view is the store less those changes: the writes of the former phase, and none of the later
+ * ones. A writer sees the epoch of the phase it entered, so each write is wholly in the view or out of it.
+ *
+ * Writers of the former phase may still be writing when the first writers see the epoch: these wait for them
+ * to be done, so no force kept misses a write of the former phase (which is in the view, and not logged after
+ * it).
+ *
+ * Writers pay two uncontended atomic updates when no epoch is open, and a map lookup per fact when one is
+ * (after the former phase drains).
+ *
+ * @author Eduardo Alevi
+ */
+class SnapshotGate {
+
+	private static final int STRIPES = 64;
+	private static final int PADDING = 8;
+
+	private final AtomicLongArray active = new AtomicLongArray(2 * STRIPES * PADDING);
+	private volatile int phase;
+	private final AtomicReferenceArray<Epoch> epochs = new AtomicReferenceArray<Epoch>(2);
+
+
+	/**
+	 * Enters the gate, before a write.
+	 *
+	 * @return The slot to be informed on {@link #exit(int)}.
+	 */
+	int enter() {
+
+		int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+
+		while (true) {
+
+			int current = phase;
+			int slot = (current * STRIPES + stripe) * PADDING;
+
+			active.incrementAndGet(slot);
+
+			if (phase == current) {
+
+				Epoch epoch = epochs.get(current);
+
+				if (epoch != null)
+					epoch.await();
+
+				return slot;
+			}
+
+			active.decrementAndGet(slot);
+		}
+	}
+
+	void exit(int slot) {
+
+		active.decrementAndGet(slot);
+	}
+
+	/**
+	 * @param slot The slot the writer entered.
+	 * @return true if the writer sees an epoch: its write is not in the epoch view.
+	 */
+	boolean sees(int slot) {
+
+		return epochs.get(phase(slot)) != null;
+	}
+
+	/**
+	 * Keeps the force of a fact before its change, if the writer sees an epoch.
+	 *
+	 * @param slot The slot the writer entered.
+	 */
+	void change(int slot, long id, FactStore store) {
+
+		Epoch current = epochs.get(phase(slot));
+
+		if (current != null && !current.before.containsKey(id))
+			current.before.putIfAbsent(id, store.force(id));
+	}
+
+	/**
+	 * Keeps a fact created by a writer, if it sees an epoch.
+	 *
+	 * @param slot The slot the writer entered.
+	 */
+	void create(int slot, long id) {
+
+		Epoch current = epochs.get(phase(slot));
+
+		if (current != null)
+			current.created.add(id);
+	}
+
+	/**
+	 * Opens an epoch, waiting the writers which may not see it. Epochs are taken one at a time, under the gate
+	 * monitor.
+	 */
+	Epoch open(AtomDictionary<?> dictionary, FactStore store) {
+
+		Epoch current = new Epoch();
+
+		// No writer is in the next phase: the last flip drained it.
+		epochs.set(phase ^ 1, current);
+		flip();
+
+		// Writes of the former phase are all done: their atoms and facts are the view ones.
+		current.atoms = dictionary.size();
+		current.last = store.size();
+		current.drained = true;
+
+		// Facts of the view may still be created by writers of the epoch: they are known once these are done.
+		epochs.set(phase ^ 1, current);
+		flip();
+
+		return current;
+	}
+
+	void close() {
+
+		epochs.set(0, null);
+		epochs.set(1, null);
+	}
+
+	private static int phase(int slot) {
+
+		return slot / (STRIPES * PADDING);
+	}
+
+	private void flip() {
+
+		int former = phase;
+		phase = former ^ 1;
+
+		for (int stripe = 0; stripe < STRIPES; stripe++)
+			while (active.get((former * STRIPES + stripe) * PADDING) > 0)
+				Thread.yield();
+	}
+
+	/**
+	 * Point in time view of the store.
+	 */
+	static final class Epoch {
+
+		private final ConcurrentHashMap<Long, Double> before = new ConcurrentHashMap<Long, Double>();
+		private final Set<Long> created = ConcurrentHashMap.newKeySet();
+		private int atoms;
+		private long last;
+		private volatile boolean drained;
+
+		/**
+		 * Waits the writers of the phase before the epoch.
+		 */
+		private void await() {
+
+			while (!drained)
+				Thread.yield();
+		}
+
+		/**
+		 * @return The quantity of atoms of the view: their codes are all the view facts need.
+		 */
+		int atoms() {
+
+			return atoms;
+		}
+
+		/**
+		 * @return The last fact ID of the view.
+		 */
+		long last() {
+
+			return last;
+		}
+
+		boolean contains(long id) {
+
+			return id <= last && !created.contains(id);
+		}
+
+		/**
+		 * @return The IDs up to the last one which are not in the view, sorted. View facts are saved in order
+		 *         without them, so each one is saved as its ID less the quantity of these below it.
+		 */
+		long[] excluded() {
+
+			return created.stream().mapToLong(Long::longValue).filter(id -> id <= last).sorted().toArray();
+		}
+
+		/**
+		 * @return The force of a view fact, as it was on the epoch start.
+		 */
+		double force(long id, FactStore store) {
+
+			// The store first: a change is kept before it is made.
+			double force = store.force(id);
+			Double former = before.get(id);
+
+			return former != null ? former : force;
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Buffered reader of snapshot files (see {@link SnapshotOutput}). Everything read is summed in a CRC32, checked
+ * by {@link #readChecksum()}.
+ *
+ * @author Eduardo Alevi
+ */
+class SnapshotInput implements Closeable {
+
+	private static final int BUFFER = 1 << 20;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+	private final CRC32 checksum = new CRC32();
+
+
+	SnapshotInput(FileChannel channel) {
+
+		this.channel = channel;
+		buffer.limit(0);
+	}
+
+	int readByte() throws IOException {
+
+		ensure(1);
+		return buffer.get() & 0xff;
+	}
+
+	int readInt() throws IOException {
+
+		ensure(Integer.BYTES);
+		return buffer.getInt();
+	}
+
+	long readLong() throws IOException {
+
+		ensure(Long.BYTES);
+		return buffer.getLong();
+	}
+
+	double readDouble() throws IOException {
+
+		ensure(Long.BYTES);
+		return buffer.getDouble();
+	}
+
+	long readVarLong() throws IOException {
+
+		long value = 0;
+
+		for (int shift = 0; shift < 64; shift += 7) {
+
+			ensure(1);
+			byte current = buffer.get();
+			value |= (long) (current & 0x7f) << shift;
+
+			if (current >= 0)
+				return value;
+		}
+
+		throw new IOException("Malformed number");
+	}
+
+	long readZigZag() throws IOException {
+
+		long value = readVarLong();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Reads a length, checked against the bytes left: a corrupted one fails before it is allocated.
+	 */
+	int readLength() throws IOException {
+
+		long length = readVarLong();
+
+		if (length < 0 || length > remaining())
+			throw new IOException("Corrupted snapshot: length " + length);
+
+		return (int) length;
+	}
+
+	byte[] readBytes() throws IOException {
+
+		byte values[] = new byte[readLength()];
+
+		for (int offset = 0; offset < values.length; ) {
+
+			ensure(1);
+
+			int count = Math.min(values.length - offset, buffer.remaining());
+			buffer.get(values, offset, count);
+			offset += count;
+		}
+
+		return values;
+	}
+
+	/**
+	 * Reads the checksum written last, checking it against everything read before.
+	 *
+	 * @throws IOException If they do not match.
+	 */
+	void readChecksum() throws IOException {
+
+		sum();
+
+		long expected = checksum.getValue();
+
+		if (readLong() != expected)
+			throw new IOException("Corrupted snapshot: checksum mismatch");
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		channel.close();
+	}
+
+	/**
+	 * @return The quantity of bytes read up to now.
+	 */
+	long position() throws IOException {
+
+		return channel.position() - buffer.remaining();
+	}
+
+	private long remaining() throws IOException {
+
+		return channel.size() - channel.position() + buffer.remaining();
+	}
+
+	/**
+	 * Sums the bytes read up to now, dropping them from the buffer.
+	 */
+	private void sum() {
+
+		ByteBuffer read = buffer.duplicate();
+		read.flip();
+		checksum.update(read);
+
+		buffer.compact();
+		buffer.flip();
+	}
+
+	private void ensure(int size) throws IOException {
+
+		if (buffer.remaining() >= size)
+			return;
+
+		sum();
+		buffer.compact();
+
+		while (buffer.position() < size)
+			if (channel.read(buffer) < 0)
+				throw new EOFException("Truncated snapshot");
+
+		buffer.flip();
+	}
+}
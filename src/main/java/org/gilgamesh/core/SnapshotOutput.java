@@ -0,0 +1,173 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Buffered writer of snapshot files: fixed size and variable length (LEB128) numbers, over a file channel.
+ * Everything written is summed in a CRC32, written last by {@link #writeChecksum()}.
+ *
+ * @author Eduardo Alevi
+ */
+class SnapshotOutput implements Closeable {
+
+	private static final int BUFFER = 1 << 20;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+	private final CRC32 checksum = new CRC32();
+	private long flushed;
+
+
+	SnapshotOutput(FileChannel channel) {
+
+		this.channel = channel;
+	}
+
+	void writeByte(int value) throws IOException {
+
+		ensure(1);
+		buffer.put((byte) value);
+	}
+
+	void writeInt(int value) throws IOException {
+
+		ensure(Integer.BYTES);
+		buffer.putInt(value);
+	}
+
+	void writeLong(long value) throws IOException {
+
+		ensure(Long.BYTES);
+		buffer.putLong(value);
+	}
+
+	void writeDouble(double value) throws IOException {
+
+		ensure(Long.BYTES);
+		buffer.putDouble(value);
+	}
+
+	/**
+	 * Writes an unsigned number, 7 bits a byte.
+	 */
+	void writeVarLong(long value) throws IOException {
+
+		ensure(10);
+
+		while ((value & ~0x7fL) != 0) {
+			buffer.put((byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Writes a signed number, small in absolute value, in few bytes.
+	 */
+	void writeZigZag(long value) throws IOException {
+
+		writeVarLong((value << 1) ^ (value >> 63));
+	}
+
+	void writeBytes(byte values[]) throws IOException {
+
+		writeBytes(values, values.length);
+	}
+
+	/**
+	 * Writes the first bytes of an array.
+	 */
+	void writeBytes(byte values[], int length) throws IOException {
+
+		writeVarLong(length);
+		writeRaw(values, length);
+	}
+
+	/**
+	 * Writes the first bytes of an array, with no length.
+	 */
+	void writeRaw(byte values[], int length) throws IOException {
+
+		for (int offset = 0; offset < length; ) {
+
+			ensure(1);
+
+			int count = Math.min(length - offset, buffer.remaining());
+			buffer.put(values, offset, count);
+			offset += count;
+		}
+	}
+
+	/**
+	 * Writes the checksum of everything written up to now.
+	 */
+	void writeChecksum() throws IOException {
+
+		flush();
+		writeLong(checksum.getValue());
+	}
+
+	/**
+	 * @return The quantity of bytes written up to now.
+	 */
+	long position() {
+
+		return flushed + buffer.position();
+	}
+
+	void flush() throws IOException {
+
+		buffer.flip();
+
+		ByteBuffer written = buffer.duplicate();
+		checksum.update(written);
+
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+
+		flushed += written.limit();
+		buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		buffer.flip();
+
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+
+		channel.force(false);
+		channel.close();
+	}
+
+	private void ensure(int size) throws IOException {
+
+		if (buffer.remaining() < size)
+			flush();
+	}
+}
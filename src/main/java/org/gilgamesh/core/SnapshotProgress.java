@@ -0,0 +1,142 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Progress of a memory snapshot being written (see {@link Gilgamesh#snapshot(File)}) or read (see
+ * {@link Gilgamesh#getStartup()}). It may be read by any thread while the snapshot goes on.
+ *
+ * @author Eduardo Alevi
+ */
+public class SnapshotProgress {
+
+	private final File file;
+	private final long start = System.nanoTime();
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile long total;
+	private volatile long facts;
+	private volatile long bytes;
+	private volatile long end;
+	private volatile boolean saved;
+
+
+	SnapshotProgress(File file) {
+
+		this.file = file;
+	}
+
+	/**
+	 * @return The file being written.
+	 */
+	public File getFile() {
+
+		return file;
+	}
+
+	/**
+	 * @return The quantity of facts of the snapshot: at most, until it is saved (0 until its view is taken).
+	 */
+	public long getTotal() {
+
+		return total;
+	}
+
+	/**
+	 * @return The quantity of facts written (or read) up to now.
+	 */
+	public long getFacts() {
+
+		return facts;
+	}
+
+	/**
+	 * @return The quantity of bytes written (or read) up to now.
+	 */
+	public long getBytes() {
+
+		return bytes;
+	}
+
+	/**
+	 * @return The time spent up to now (or up to the end), in milliseconds.
+	 */
+	public long getElapsed() {
+
+		return ((end != 0 ? end : System.nanoTime()) - start) / 1000000;
+	}
+
+	/**
+	 * @return The facts written (or read) per second, up to now.
+	 */
+	public double getThroughput() {
+
+		long elapsed = getElapsed();
+		return elapsed > 0 ? facts * 1000.0 / elapsed : 0;
+	}
+
+	public boolean isDone() {
+
+		return done.getCount() == 0;
+	}
+
+	/**
+	 * Waits the snapshot end.
+	 *
+	 * @return true if the snapshot was saved (or loaded). false otherwise.
+	 */
+	public boolean await() throws InterruptedException {
+
+		done.await();
+		return saved;
+	}
+
+	void start(long total) {
+
+		this.total = total;
+	}
+
+	void update(long facts, long bytes) {
+
+		this.facts = facts;
+		this.bytes = bytes;
+	}
+
+	void finish(boolean saved) {
+
+		// The view facts are known once written: the ones created while it was taken are left out.
+		if (saved)
+			this.total = facts;
+
+		this.saved = saved;
+		this.end = System.nanoTime();
+		done.countDown();
+	}
+
+	@Override
+	public String toString() {
+
+		return String.format("%s: %d of %d facts (%.1f%%), %d bytes, %d ms, %.0f facts/s%s", file, facts, total,
+				total > 0 ? facts * 100.0 / total : 0.0, bytes, getElapsed(), getThroughput(),
+				isDone() ? (saved ? ", done" : ", failed") : "");
+	}
+}
@@ -0,0 +1,489 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh.core;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of the facts given to a memory (see {@link Gilgamesh#setLog(WriteAheadLog)}), so the facts
+ * given since the last snapshot survive a crash. Each fact is a record (length, CRC32 and the fact force, time
+ * and atom values) appended to the current segment of a directory, before it is given to the memory.
+ *
+ * Writes are committed in groups: with no sync interval, a writer waits until an fsync covers its record, and
+ * all writers waiting meanwhile share the next one; with an interval, writers do not wait, and a background
+ * thread syncs the log at that interval (the facts of the last interval may be lost in a crash).
+ *
+ * Snapshots switch to a new segment at their point in time, and keep its number: on recovery, the segments
+ * from that one on are replayed over the snapshot (see {@link Gilgamesh#recover(File, WriteAheadLog)}), and a
+ * checkpoint deletes the ones before it (see {@link Gilgamesh#checkpoint(File)}).
+ *
+ * @author Eduardo Alevi
+ */
+public class WriteAheadLog implements Closeable {
+
+	private static final String PREFIX = "wal-";
+	private static final String SUFFIX = ".log";
+	private static final int CAPACITY = 1 << 16;
+	private static final int HEADER = 2 * Integer.BYTES;
+
+	private static final int STRING = 0;
+	private static final int OBJECT = 1;
+
+	private final File directory;
+	private final long syncInterval;
+	private volatile Segment current;
+	private volatile Segment next;
+	private volatile boolean closed;
+
+
+	/**
+	 * Opens a log which syncs every write (grouped with the concurrent ones).
+	 *
+	 * @param directory The log directory, created if it does not exist.
+	 */
+	public WriteAheadLog(File directory) throws IOException {
+
+		this(directory, 0);
+	}
+
+	/**
+	 * Opens a log. Segments already in the directory are kept, to be replayed, and writes go to a new one.
+	 *
+	 * @param directory The log directory, created if it does not exist.
+	 * @param syncInterval The interval between syncs, in milliseconds, or 0 to sync every write (grouped with
+	 *            the concurrent ones).
+	 */
+	public WriteAheadLog(File directory, long syncInterval) throws IOException {
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create log directory " + directory);
+
+		this.directory = directory;
+		this.syncInterval = syncInterval;
+
+		long segments[] = segments();
+		current = new Segment(segments.length > 0 ? segments[segments.length - 1] + 1 : 1);
+
+		if (syncInterval > 0) {
+
+			Thread flusher = new Thread(this::flush, "gilgamesh-log");
+			flusher.setDaemon(true);
+			flusher.start();
+		}
+	}
+
+	/**
+	 * Logs a fact, waiting its sync if the log syncs every write.
+	 *
+	 * @param epoch Indicates that the writer is in a snapshot epoch: its fact goes to the segment after it.
+	 * @throws UncheckedIOException If the fact cannot be logged, so it must not be given to the memory.
+	 */
+	void write(Fact<?> fact, boolean epoch) {
+
+		Segment segment = segment(epoch);
+
+		try {
+			long position = segment.append(encode(fact));
+
+			if (syncInterval <= 0)
+				segment.sync(position);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Logs a batch of facts, in order, waiting a single sync for all of them if the log syncs every write.
+	 *
+	 * @param epoch Indicates that the writer is in a snapshot epoch: its facts go to the segment after it.
+	 * @throws UncheckedIOException If the facts cannot be logged, so they must not be given to the memory.
+	 */
+	void write(Fact<?> facts[], boolean epoch) {
+
+		Segment segment = segment(epoch);
+
+		try {
+			long position = 0;
+
+			for (Fact<?> fact : facts)
+				position = segment.append(encode(fact));
+
+			if (syncInterval <= 0 && facts.length > 0)
+				segment.sync(position);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return The segment a writer logs in.
+	 */
+	private Segment segment(boolean epoch) {
+
+		// Read once: the snapshot may promote the epoch segment meanwhile, making it current.
+		Segment after = next;
+
+		return epoch && after != null ? after : current;
+	}
+
+	/**
+	 * Starts the segment of a snapshot epoch, to be made current by {@link #promote()} once the epoch is open.
+	 *
+	 * @return The number of the segment: the first one whose facts are not in the snapshot.
+	 */
+	long rotate() throws IOException {
+
+		next = new Segment(current.number + 1);
+		return next.number;
+	}
+
+	/**
+	 * Makes the segment of the snapshot epoch current, closing the former one (its writers are all done).
+	 */
+	void promote() throws IOException {
+
+		Segment former = current;
+
+		current = next;
+		next = null;
+		former.close();
+	}
+
+	/**
+	 * Deletes the segments before a snapshot.
+	 *
+	 * @param mark The number of the first segment whose facts are not in the snapshot.
+	 */
+	void truncate(long mark) {
+
+		for (long number : segments())
+			if (number < mark && !file(number).delete())
+				Logger.getGlobal().log(Level.WARNING, "Cannot delete log segment " + file(number));
+	}
+
+	/**
+	 * Gives the logged facts, in the order they were logged, up to the first torn or corrupted record of each
+	 * segment (a write which was never synced).
+	 *
+	 * @param mark The number of the first segment to be replayed.
+	 * @return The quantity of facts replayed.
+	 */
+	long replay(long mark, Consumer<Fact<Serializable>> action) throws IOException, ClassNotFoundException {
+
+		long count = 0;
+
+		for (long number : segments()) {
+
+			if (number < mark || number >= current.number)
+				continue;
+
+			long size = file(number).length();
+
+			try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file(number)), CAPACITY))) {
+
+				while (true) {
+
+					byte record[];
+
+					try {
+						int length = input.readInt();
+						int checksum = input.readInt();
+
+						if (length <= 0 || length > size)
+							break;
+
+						record = new byte[length];
+						input.readFully(record);
+
+						CRC32 crc = new CRC32();
+						crc.update(record);
+
+						if ((int) crc.getValue() != checksum)
+							break;
+					}
+					catch (EOFException e) {
+						break;
+					}
+
+					action.accept(decode(record));
+					count++;
+				}
+			}
+		}
+
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		closed = true;
+
+		Segment segment = next;
+
+		if (segment != null)
+			segment.close();
+
+		current.close();
+	}
+
+	private void flush() {
+
+		while (!closed)
+			try {
+				Thread.sleep(syncInterval);
+
+				Segment segment = current;
+				segment.sync(segment.appended());
+
+				if ((segment = next) != null)
+					segment.sync(segment.appended());
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+			catch (Exception e) {
+				e.printStackTrace();
+				Logger.getGlobal().log(Level.SEVERE, "Cannot sync log in " + directory);
+			}
+	}
+
+	private File file(long number) {
+
+		return new File(directory, String.format("%s%012d%s", PREFIX, number, SUFFIX));
+	}
+
+	/**
+	 * @return The numbers of the segments in the directory, in ascending order.
+	 */
+	private long[] segments() {
+
+		String names[] = directory.list();
+		long numbers[] = new long[names != null ? names.length : 0];
+		int count = 0;
+
+		for (int i = 0; i < numbers.length; i++)
+			if (names[i].startsWith(PREFIX) && names[i].endsWith(SUFFIX))
+				try {
+					numbers[count++] = Long.parseLong(names[i].substring(PREFIX.length(), names[i].length() - SUFFIX.length()));
+				}
+				catch (NumberFormatException e) {
+					count--;
+				}
+
+		numbers = Arrays.copyOf(numbers, count);
+		Arrays.sort(numbers);
+		return numbers;
+	}
+
+	private static byte[] encode(Fact<?> fact) throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream output = new DataOutputStream(bytes);
+
+		output.writeDouble(fact.force);
+		output.writeLong(fact.time);
+		output.writeInt(fact.atoms.length);
+
+		for (Serializable value : fact.atoms)
+			if (value instanceof String) {
+
+				byte string[] = ((String) value).getBytes(StandardCharsets.UTF_8);
+
+				output.writeByte(STRING);
+				output.writeInt(string.length);
+				output.write(string);
+			}
+			else {
+				ByteArrayOutputStream object = new ByteArrayOutputStream();
+
+				try (ObjectOutputStream stream = new ObjectOutputStream(object)) {
+					stream.writeObject(value);
+				}
+
+				output.writeByte(OBJECT);
+				output.writeInt(object.size());
+				object.writeTo(output);
+			}
+
+		return bytes.toByteArray();
+	}
+
+	private static Fact<Serializable> decode(byte record[]) throws IOException, ClassNotFoundException {
+
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+		double force = input.readDouble();
+		long time = input.readLong();
+		Serializable values[] = new Serializable[input.readInt()];
+
+		for (int i = 0; i < values.length; i++) {
+
+			int type = input.readByte();
+			byte bytes[] = new byte[input.readInt()];
+
+			input.readFully(bytes);
+
+			if (type == STRING)
+				values[i] = new String(bytes, StandardCharsets.UTF_8);
+			else
+
+				try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+					values[i] = (Serializable) stream.readObject();
+				}
+		}
+
+		return new Fact<Serializable>(0, force, time, values);
+	}
+
+	/**
+	 * A log file, written in groups: records are appended to a buffer, swapped with a spare one by the writer
+	 * which syncs them.
+	 */
+	private final class Segment {
+
+		private final long number;
+		private final FileChannel channel;
+		private final Object sync = new Object();
+		private ByteBuffer pending = ByteBuffer.allocate(CAPACITY);
+		private ByteBuffer spare = ByteBuffer.allocate(CAPACITY);
+		private long appended;
+		private volatile long synced;
+		private boolean closed;
+
+		Segment(long number) throws IOException {
+
+			this.number = number;
+			this.channel = FileChannel.open(file(number).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.APPEND);
+		}
+
+		/**
+		 * @return The position (in bytes written to the segment) the record ends at.
+		 */
+		synchronized long append(byte record[]) throws IOException {
+
+			if (closed)
+				throw new IOException("Log segment closed: " + file(number));
+
+			if (pending.remaining() < HEADER + record.length) {
+				ByteBuffer buffer = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + HEADER + record.length));
+				pending.flip();
+				pending = buffer.put(pending);
+			}
+
+			CRC32 crc = new CRC32();
+			crc.update(record);
+
+			pending.putInt(record.length);
+			pending.putInt((int) crc.getValue());
+			pending.put(record);
+
+			return appended += HEADER + record.length;
+		}
+
+		synchronized long appended() {
+
+			return appended;
+		}
+
+		/**
+		 * Syncs the segment up to a position, at least. A writer already syncing it covers the records appended
+		 * meanwhile on the next sync.
+		 */
+		void sync(long position) throws IOException {
+
+			if (synced >= position)
+				return;
+
+			synchronized (sync) {
+
+				if (synced >= position)
+					return;
+
+				ByteBuffer batch;
+				long end;
+
+				synchronized (this) {
+
+					if (closed)
+						return;
+
+					batch = pending;
+					pending = spare;
+					end = appended;
+				}
+
+				batch.flip();
+
+				while (batch.hasRemaining())
+					channel.write(batch);
+
+				channel.force(false);
+
+				// The spare buffer is only swapped under the sync monitor: it is this one, until the next sync.
+				batch.clear();
+
+				synchronized (this) {
+					spare = batch;
+				}
+
+				synced = end;
+			}
+		}
+
+		void close() throws IOException {
+
+			synchronized (sync) {
+
+				sync(appended());
+
+				synchronized (this) {
+					closed = true;
+				}
+
+				channel.close();
+			}
+		}
+	}
+}
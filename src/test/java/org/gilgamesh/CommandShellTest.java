@@ -0,0 +1,147 @@
+/*
+	Gilgamesh Artificial Intelligence Project
+    Copyright (C) 2014  Eduardo Alevi
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gilgamesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Runs without PowerMock: its class loader cannot stand the security manager trapping the exit.
+ */
+public class CommandShellTest {
+
+	private static final List<String> SCRIPT = Arrays.asList("dog eats meat", "cat eats fish", "dog eats?", "answer;eats");
+
+	@Test
+	public void testExit() throws IOException {
+
+		File directory = Files.createTempDirectory("gilgamesh_").toFile();
+		File script = new File(directory, "script.txt");
+		File exited = new File(directory, "exited.txt");
+		File done = new File(directory, "done.txt");
+		SecurityManager manager = System.getSecurityManager();
+		ExitTrap trap = new ExitTrap(exited);
+
+		try {
+			Files.write(script.toPath(), SCRIPT, StandardCharsets.UTF_8);
+			new CommandShell(script + ";" + done + ";");
+
+			Files.write(script.toPath(), SCRIPT, StandardCharsets.UTF_8);
+			Files.write(script.toPath(), Arrays.asList("exit;"), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+			System.setSecurityManager(trap);
+			new CommandShell(script + ";" + exited + ";");
+		}
+		finally {
+			System.setSecurityManager(manager);
+		}
+
+		// The answers were written when the shell exited, as when the script was done (but for their times).
+		String expected = new String(Files.readAllBytes(done.toPath()), StandardCharsets.UTF_8);
+
+		assertTrue(expected.contains("meat") && expected.contains("fish"));
+		assertEquals(expected.replaceAll("\\d+:", ""), trap.written.replaceAll("\\d+:", ""));
+
+		for (File file : directory.listFiles())
+			file.delete();
+
+		directory.delete();
+	}
+
+	@Test
+	public void testDone() throws Exception {
+
+		File directory = Files.createTempDirectory("gilgamesh_").toFile();
+		File script = new File(directory, "script.txt");
+		File output = new File(directory, "output.txt");
+		List<String> lines = new ArrayList<String>(SCRIPT);
+		PrintStream err = System.err;
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+
+		// A script done before its end stops its reader, still reading the next lines.
+		lines.add("done;");
+
+		for (int i = 0; i < 100000; i++)
+			lines.add("w" + i + " eats x" + i);
+
+		Files.write(script.toPath(), lines, StandardCharsets.UTF_8);
+
+		try {
+			System.setErr(new PrintStream(errors, true));
+			new CommandShell(script + ";" + output + ";");
+			Thread.sleep(500);
+		}
+		finally {
+			System.setErr(err);
+		}
+
+		assertEquals("", errors.toString());
+		assertTrue(new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8).contains("fish"));
+
+		for (File file : directory.listFiles())
+			file.delete();
+
+		directory.delete();
+	}
+
+	/**
+	 * Keeps the test running on exit, reading the output file as it was then.
+	 */
+	private static final class ExitTrap extends SecurityManager {
+
+		private final File file;
+		private volatile String written;
+
+		private ExitTrap(File file) {
+
+			this.file = file;
+		}
+
+		@Override
+		public void checkPermission(Permission permission) {
+		}
+
+		@Override
+		public void checkExit(int status) {
+
+			try {
+				written = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+			}
+			catch (IOException e) {
+				written = null;
+			}
+
+			throw new SecurityException("Exit " + status);
+		}
+	}
+}
@@ -19,15 +19,30 @@
 
 package org.gilgamesh.core;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -118,33 +133,592 @@ public class GilgameshIntegrityPersistenceTest {
 		
 	}
 	
-}
 
+	@Test
+	public void testSequence() throws Exception {
+
+		File file = File.createTempFile("gilgamesh_", ".dat");
+		Gilgamesh<String> gilgamesh = new Gilgamesh<String>();
+
+		gilgamesh.reinforce("A", "B");
+		gilgamesh.reinforce("B", "C");
+		gilgamesh.reinforce("A", "B");
+		Gilgamesh.<String>save(file, gilgamesh);
+
+		gilgamesh = Gilgamesh.<String>load(file);
+		gilgamesh.reinforce("C", "D");
+		file.delete();
+
+		Fact<String> facts[] = gilgamesh.getFacts();
+		
+		assertEquals(3, facts.length);
+		assertEquals(3, facts[2].id);
+		assertEquals("C", facts[2].atoms[0]);
+	}
+	
+	@Test
+	public void testSnapshot() throws Exception {
+
+		File file = File.createTempFile("gilgamesh_", ".dat");
+		Gilgamesh<String> memory = random(new Random(1));
+
+		assertEquals(true, Gilgamesh.<String>save(file, memory));
+
+		Gilgamesh<String> loaded = Gilgamesh.<String>load(file);
+		check(memory, loaded);
+
+		for (int i = 0; i < memory.getFacts().length; i++)
+			assertEquals(memory.getFacts()[i].time, loaded.getFacts()[i].time);
+
+		// Corrupted files are refused.
+		byte bytes[] = Files.readAllBytes(file.toPath());
+		bytes[bytes.length / 2] ^= 1;
+		Files.write(file.toPath(), bytes);
+
+		assertEquals(null, Gilgamesh.<String>load(file));
+		file.delete();
+	}
+
+	@Test
+	public void testSnapshotBlocks() throws Exception {
+
+		File file = File.createTempFile("gilgamesh_", ".dat");
+		Gilgamesh<String> memory = new Gilgamesh<String>();
+		Random random = new Random(4);
+
+		// Some blocks of facts, linked to atoms of all frequencies.
+		for (int i = 0; i < 40000; i++)
+			memory.fact(random.nextInt(4) == 0 ? 0.5 : 1, "s" + random.nextInt(10), "is", "o" + i % 5000);
+
+		assertEquals(true, Gilgamesh.<String>save(file, memory));
+
+		Gilgamesh<String> loaded = Gilgamesh.<String>load(file);
+		Fact<String> expected[] = memory.getFacts();
+		Fact<String> facts[] = loaded.getFacts();
+
+		assertEquals(expected.length, facts.length);
+		assertEquals(facts.length, loaded.getStartup().getFacts());
+
+		for (int i = 0; i < facts.length; i++) {
+			assertEquals(expected[i], facts[i]);
+			assertEquals(expected[i].force, facts[i].force, 0.0);
+		}
+
+		for (String question : new String[] { "s1", "o7", "is" })
+			assertEquals(memory.getAnswers(false, false, question).size(), loaded.getAnswers(false, false, question).size());
 
+		assertEquals(memory.topAnswers(5, false, false, "s3").toString(), loaded.topAnswers(5, false, false, "s3").toString());
+		file.delete();
+	}
 
+	@Test
+	public void testOpen() throws Exception {
 
+		File file = File.createTempFile("gilgamesh_", ".dat");
+		Gilgamesh<String> memory = new Gilgamesh<String>();
+		Random random = new Random(5);
 
+		for (int i = 0; i < 40000; i++)
+			memory.fact(random.nextInt(4) == 0 ? 0.5 : 1, "s" + random.nextInt(10), "is", "o" + i % 5000);
 
+		assertEquals(true, Gilgamesh.<String>save(file, memory));
 
+		int saved = memory.getFacts().length;
 
+		// A cache smaller than a block of facts: each question pages blocks in and out.
+		try (SnapshotFactStore store = new SnapshotFactStore(file, 1 << 16)) {
 
+			Gilgamesh<String> opened = new Gilgamesh<String>(store);
 
+			for (String question : new String[] { "s1", "o7", "is", "o4999" })
+				assertEquals(memory.getAnswers(false, false, question).size(), opened.getAnswers(false, false, question).size());
 
+			assertEquals(memory.topAnswers(5, false, false, "s3").toString(), opened.topAnswers(5, false, false, "s3").toString());
+			assertEquals(true, store.getCached() < 1 << 21);
 
+			// Each fact of the snapshot is found by its hash, at its position in the snapshot.
+			Fact<String> saves[] = memory.getFacts();
+			Map<Serializable, Integer> atoms = new HashMap<Serializable, Integer>();
 
+			for (Serializable atom : store.getAtoms())
+				atoms.put(atom, atoms.size());
 
+			for (int i = 0; i < saves.length; i++) {
 
+				int codes[] = new int[saves[i].atoms.length];
 
+				for (int j = 0; j < codes.length; j++)
+					codes[j] = atoms.get(saves[i].atoms[j]);
 
+				assertEquals(i + 1, store.find(codes));
+			}
 
+			assertEquals(0, store.find(new int[] { atoms.get("o7"), atoms.get("is") }));
 
+			// Facts of the snapshot and new ones, written after open.
+			for (Gilgamesh<String> target : Arrays.asList(memory, opened)) {
+				target.fact(2, "s1", "is", "o7");
+				target.fact(3, "s1", "is", "new");
+			}
 
+			Fact<String> expected[] = memory.getFacts();
+			Fact<String> facts[] = opened.getFacts();
 
+			assertEquals(expected.length, facts.length);
 
+			for (int i = 0; i < facts.length; i++) {
+				assertEquals(expected[i], facts[i]);
+				assertEquals(expected[i].force, facts[i].force, 0.0);
+			}
 
+			assertEquals(memory.topAnswers(5, false, false, "s1").toString(), opened.topAnswers(5, false, false, "s1").toString());
+			assertEquals(memory.getAnswers(false, false, "new").size(), opened.getAnswers(false, false, "new").size());
 
+			// Links of the snapshot, then the ones of the new facts.
+			int code = store.getAtoms().indexOf("s1");
+			PostingList.Cursor cursor = store.postings(code).cursor();
 
+			assertEquals(store.postings(code).size(), cursor.size());
 
+			for (int i = 1; i < cursor.size(); i++)
+				assertTrue(cursor.get(i - 1) < cursor.get(i));
+
+			cursor = store.postings(0).cursor();
+
+			for (long id = 0; id <= store.size(); id += 101)
+				assertTrue(cursor.seek(id, 0) == cursor.size() || cursor.get(cursor.seek(id, 0)) >= id);
+		}
+
+		Gilgamesh<String> opened = Gilgamesh.<String>open(file);
+
+		assertEquals(saved, opened.getFacts().length);
+		assertEquals(null, Gilgamesh.<String>open(new File(file.getAbsolutePath() + ".none")));
+		opened.close();
+
+		// Closed, the memory releases the snapshot: facts not paged in yet cannot be read.
+		try (Gilgamesh<String> closed = Gilgamesh.<String>open(file)) {
+
+			closed.close();
+			closed.getFacts();
+			fail();
+		}
+		catch (UncheckedIOException e) {
+		}
+
+		file.delete();
+	}
+
+	@Test
+	public void testOnlineSnapshot() throws Exception {
+
+		File file = File.createTempFile("gilgamesh_", ".dat");
+		Gilgamesh<String> memory = new Gilgamesh<String>();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Callable<Object>> todo = new ArrayList<Callable<Object>>();
+
+		// Each writer reinforces its total, then creates a fact: a point in time view holds a prefix of both.
+		for (int t = 0; t < 4; t++) {
+
+			String writer = "w" + t;
+
+			todo.add(Executors.callable(() -> {
+
+				for (int i = 0; i < 2000; i++) {
+					memory.reinforce(writer, "total");
+					memory.reinforce(writer, "f" + i);
+				}
+			}));
+		}
+
+		List<Future<Object>> writers = new ArrayList<Future<Object>>();
+
+		for (Callable<Object> writer : todo)
+			writers.add(executor.submit(writer));
+
+		while (memory.getFacts().length < 1000)
+			Thread.sleep(1);
+
+		SnapshotProgress progress = memory.snapshot(file);
+
+		assertEquals(true, progress.await());
+		assertEquals(progress.getFacts(), Gilgamesh.<String>load(file).getFacts().length);
+
+		for (Future<Object> writer : writers)
+			writer.get();
+
+		executor.shutdown();
+
+		for (int t = 0; t < 4; t++) {
+
+			double total = 0;
+			TreeSet<Integer> created = new TreeSet<Integer>();
+
+			for (Fact<String> fact : Gilgamesh.<String>load(file).getFacts())
+				if (fact.atoms[0].equals("w" + t)) {
+
+					if (fact.atoms[1].equals("total"))
+						total = fact.force;
+					else {
+						assertEquals(1.0, fact.force, 0.0);
+						created.add(Integer.parseInt(fact.atoms[1].substring(1)));
+					}
+				}
+
+			assertEquals(true, total - created.size() == 0 || total - created.size() == 1);
+			assertEquals(true, created.isEmpty() || created.last() == created.size() - 1);
+		}
+
+		file.delete();
+	}
+
+	@Test
+	public void testLog() throws Exception {
+
+		File directory = Files.createTempDirectory("gilgamesh_").toFile();
+		File file = new File(directory, "memory.dat");
+		WriteAheadLog log = new WriteAheadLog(directory);
+		Gilgamesh<String> memory = Gilgamesh.<String>recover(file, log);
+		Gilgamesh<String> expected = new Gilgamesh<String>();
+		Random random = new Random(3);
+
+		for (int i = 0; i < 300; i++) {
+
+			String fact[] = { "s" + random.nextInt(10), "is", "o" + random.nextInt(30) };
+
+			memory.fact(i - 100, fact);
+			expected.fact(i - 100, fact);
+
+			// A save keeps the log: its facts are not replayed twice. A checkpoint deletes it.
+			if (i == 100)
+				assertEquals(true, Gilgamesh.<String>save(file, memory));
+
+			if (i == 200)
+				assertEquals(true, memory.checkpoint(file));
+
+			// Bulk loads log their batches too.
+			if (i == 250) {
+				List<String[]> facts = new ArrayList<String[]>();
+
+				for (int f = 0; f < 100; f++)
+					facts.add(new String[] { "s" + random.nextInt(10), "is", "o" + random.nextInt(30) });
+
+				memory.bulkLoad(facts.iterator());
+				expected.bulkLoad(facts.iterator());
+			}
+		}
+
+		// A crash: the memory is not saved, and the last record is torn.
+		log.close();
+
+		File segments[] = directory.listFiles((folder, name) -> name.endsWith(".log"));
+		Arrays.sort(segments);
+
+		try (FileOutputStream output = new FileOutputStream(segments[segments.length - 1], true)) {
+			output.write(new byte[] { 0, 0, 0, 40, 1, 2 });
+		}
+
+		log = new WriteAheadLog(directory, 10);
+		memory = Gilgamesh.<String>recover(file, log);
+		check(expected, memory);
+
+		memory.reinforce("s1", "is", "new");
+		expected.reinforce("s1", "is", "new");
+		log.close();
+
+		check(expected, Gilgamesh.<String>recover(file, log = new WriteAheadLog(directory)));
+		log.close();
+
+		for (File current : directory.listFiles())
+			current.delete();
+
+		directory.delete();
+	}
+
+	@Test
+	public void testLogSave() throws Exception {
+
+		File directory = Files.createTempDirectory("gilgamesh_").toFile();
+		File file = new File(directory, "memory.dat");
+		WriteAheadLog log = new WriteAheadLog(directory, 10);
+		Gilgamesh<String> memory = Gilgamesh.<String>recover(file, log);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<Object>> writers = new ArrayList<Future<Object>>();
+
+		// Saves promote the log segment of their epoch while writers log in it.
+		for (int t = 0; t < 4; t++) {
+
+			String writer = "w" + t;
+
+			writers.add(executor.submit(Executors.callable(() -> {
+
+				for (int i = 0; i < 2000; i++)
+					memory.reinforce(writer, "total");
+			})));
+		}
 
+		for (int i = 0; i < 20; i++)
+			assertEquals(true, i % 2 == 0 ? Gilgamesh.<String>save(file, memory) : memory.checkpoint(file));
 
+		for (Future<Object> writer : writers)
+			writer.get();
 
+		executor.shutdown();
+		log.close();
+
+		Gilgamesh<String> recovered = Gilgamesh.<String>recover(file, log = new WriteAheadLog(directory));
+
+		// Every fact was logged once, and stored.
+		for (Fact<String> fact : memory.getFacts())
+			assertEquals(2000, fact.force, 0.0);
+
+		check(memory, recovered);
+
+		log.close();
+
+		for (File current : directory.listFiles())
+			current.delete();
+
+		directory.delete();
+	}
+
+	@Test
+	public void testLogEpoch() throws Exception {
+
+		File directory = Files.createTempDirectory("gilgamesh_").toFile();
+		File file = new File(directory, "memory.dat");
+		WriteAheadLog log = new WriteAheadLog(directory);
+		CountDownLatch delayed = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicBoolean delay = new AtomicBoolean();
+
+		// A store whose next sum waits, as a writer of the phase before an epoch may.
+		Gilgamesh<String> memory = new Gilgamesh<String>(new HeapFactStore() {
+
+			@Override
+			public double add(long id, double force) {
+
+				if (delay.compareAndSet(true, false)) {
+					delayed.countDown();
+
+					try {
+						release.await();
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+
+				return super.add(id, force);
+			}
+		});
+
+		memory.setLog(log);
+		memory.reinforce("a", "b");
+		delay.set(true);
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		Future<?> former = executor.submit(() -> memory.reinforce("a", "b"));
+
+		delayed.await();
+
+		// The checkpoint opens its epoch and waits the former writer, while a writer of the epoch comes.
+		Future<Boolean> checkpoint = executor.submit(() -> memory.checkpoint(file));
+		Thread.sleep(100);
+		Future<?> later = executor.submit(() -> memory.reinforce("a", "b"));
+		Thread.sleep(100);
+
+		release.countDown();
+		former.get();
+		later.get();
+
+		assertEquals(true, checkpoint.get());
+		executor.shutdown();
+		log.close();
+
+		// The former write is in the snapshot (its log segment is gone), and the later one in the log.
+		Gilgamesh<String> recovered = Gilgamesh.<String>recover(file, log = new WriteAheadLog(directory));
+
+		assertEquals(1, recovered.getFacts().length);
+		assertEquals(3, recovered.getFacts()[0].force, 0.0);
+		log.close();
+
+		for (File current : directory.listFiles())
+			current.delete();
+
+		directory.delete();
+	}
+
+	@Test
+	public void testLegacy() throws Exception {
+
+		File file = File.createTempFile("gilgamesh_", ".dat");
+		Gilgamesh<String> memory = random(new Random(2));
+
+		try (ObjectOutputStream output = new ObjectOutputStream(new FileOutputStream(file))) {
+			output.writeObject(memory);
+		}
+
+		check(memory, Gilgamesh.<String>load(file));
+		file.delete();
+	}
+
+	@Test
+	public void testMapped() throws Exception {
+
+		File directory = Files.createTempDirectory("gilgamesh_").toFile();
+		Gilgamesh<String> heap = new Gilgamesh<String>();
+		MappedFactStore store = new MappedFactStore(directory);
+		Gilgamesh<String> mapped = new Gilgamesh<String>(store);
+		Random random = new Random(1);
+
+		for (int i = 0; i < 1000; i++) {
+
+			String fact[] = { "s" + random.nextInt(10), "is", "o" + random.nextInt(100) };
+			double force = random.nextInt(5) - 1;
+
+			heap.fact(force, fact);
+			mapped.fact(force, fact);
+		}
+
+		check(heap, mapped);
+		store.close();
+
+		store = new MappedFactStore(directory);
+		mapped = new Gilgamesh<String>(store);
+		check(heap, mapped);
+
+		// Statistics saved on close are read on open, or walked again if the store was not closed.
+		assertEquals(heap.statistics().toString(), store.statistics().get().toString());
+
+		try (MappedFactStore open = new MappedFactStore(directory)) {
+			check(heap, new Gilgamesh<String>(open));
+		}
+
+		heap.reinforce("s1", "is", "new");
+		mapped.reinforce("s1", "is", "new");
+		check(heap, mapped);
+		store.close();
+
+		for (File file : directory.listFiles())
+			file.delete();
+
+		directory.delete();
+	}
+
+	@Test
+	public void testMappedPostings() throws Exception {
+
+		File directory = Files.createTempDirectory("gilgamesh_").toFile();
+		MappedFactStore store = new MappedFactStore(directory);
+		Random random = new Random(1);
+		TreeSet<Long> expected = new TreeSet<Long>();
+
+		Map<PostingList.Cursor, List<Long>> cursors = new HashMap<PostingList.Cursor, List<Long>>();
+
+		store.putAtom(0, "A");
+
+		// Mostly ascending, as the IDs of new facts, with some out of order ones.
+		for (long id = 1; id < 40000; id++) {
+
+			long value = random.nextInt(10) == 0 ? id - random.nextInt(100) : id;
+
+			assertEquals(expected.add(value), store.postings(0).add(value));
+
+			// Cursors keep the IDs linked when they were taken.
+			if (id % 3000 == 0)
+				cursors.put(store.postings(0).cursor(), new ArrayList<Long>(expected));
+		}
+
+		for (Map.Entry<PostingList.Cursor, List<Long>> entry : cursors.entrySet()) {
+
+			PostingList.Cursor cursor = entry.getKey();
+			List<Long> ids = entry.getValue();
+
+			assertEquals(ids.size(), cursor.size());
+
+			for (int i = ids.size() - 1; i >= 0; i -= 7)
+				assertEquals(ids.get(i).longValue(), cursor.get(i));
+
+			for (int i = 0; i < ids.size(); i++)
+				assertEquals(ids.get(i).longValue(), cursor.get(i));
+
+			for (long id = 1; id < 40000; id += 37) {
+				int position = Collections.binarySearch(ids, id);
+				assertEquals(position >= 0 ? position : -position - 1, cursor.seek(id, 0));
+			}
+		}
+
+		PostingList odd = new PostingList();
+
+		for (long id = 1; id < 40000; id += 2)
+			odd.add(id);
+
+		List<Long> intersection = new ArrayList<Long>();
+
+		for (long id : expected)
+			if (id % 2 == 1)
+				intersection.add(id);
+
+		long common[] = PostingList.intersect(store.postings(0).cursor(), odd.cursor());
+
+		assertEquals(intersection.size(), common.length);
+
+		for (int i = 0; i < common.length; i++)
+			assertEquals(intersection.get(i).longValue(), common[i]);
+
+		store.close();
+		store = new MappedFactStore(directory);
+
+		PostingList.Cursor cursor = store.postings(0).cursor();
+		int i = 0;
+
+		assertEquals(expected.size(), cursor.size());
+
+		for (long id : expected)
+			assertEquals(id, cursor.get(i++));
+
+		assertEquals("A", store.getAtoms().get(0));
+		store.close();
+
+		for (File file : directory.listFiles())
+			file.delete();
+
+		directory.delete();
+	}
+
+	private Gilgamesh<String> random(Random random) {
+
+		Gilgamesh<String> memory = new Gilgamesh<String>();
+
+		for (int i = 0; i < 1000; i++)
+			memory.fact(random.nextInt(3) == 0 ? random.nextDouble() * 10 - 5 : random.nextInt(5) - 1,
+					"s" + random.nextInt(10), "is", "o" + random.nextInt(100), "\u00e7\u00e3o");
+
+		return memory;
+	}
+
+	private void check(Gilgamesh<String> expected, Gilgamesh<String> memory) {
+
+		Fact<String> facts[] = memory.getFacts();
+
+		assertEquals(expected.getFacts().length, facts.length);
+		assertEquals(expected.getAtoms().length, memory.getAtoms().length);
+		assertEquals(expected.statistics().toString(), memory.statistics().toString());
+
+		for (int i = 0; i < facts.length; i++) {
+			assertEquals(expected.getFacts()[i], facts[i]);
+			assertEquals(expected.getFacts()[i].force, facts[i].force, 0.0);
+		}
+
+		for (int s = 0; s < 10; s++) {
+
+			List<Fact<String>> answers = new ArrayList<Fact<String>>(memory.getAnswers(true, false, "s" + s, "is"));
+			int i = 0;
+
+			assertEquals(expected.getAnswers(true, false, "s" + s, "is").size(), answers.size());
+
+			for (Fact<String> answer : expected.getAnswers(true, false, "s" + s, "is"))
+				assertEquals(answer, answers.get(i++));
+		}
+	}
+}
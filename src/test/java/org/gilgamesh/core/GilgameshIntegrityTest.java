@@ -22,11 +22,19 @@ package org.gilgamesh.core;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.io.Serializable;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -40,6 +48,7 @@ public class GilgameshIntegrityTest {
 
 	private int counter;
 	private static final double PRECISION = 0.0001;
+	private static final String VALUES[] = {"is", "a", "cat", "dog", "rat", "eats", "food", "bad", "tasty", "ration"};
 
 
 	@Test
@@ -234,6 +243,457 @@ public class GilgameshIntegrityTest {
 		
 	}
 
+	@Test
+	public void testExactMatch() {
+
+		Random random = new Random(1);
+		Gilgamesh<String> core = createRandom(random);
+
+		for (int i = 0; i < 200; i++) {
+
+			String question[] = createQuestion(random);
+
+			TreeSet<Fact<String>> expected = new TreeSet<Fact<String>>(Collections.reverseOrder());
+
+			fact:
+			for (Fact<String> fact : core.getFacts()) {
+
+				int matches = 0;
+
+				for (String value : new HashSet<String>(Arrays.asList(question))) {
+
+					int count = Collections.frequency(Arrays.asList(fact.atoms), value);
+
+					if (count <= 0)
+						continue fact;
+
+					matches += count;
+				}
+
+				if (matches == question.length)
+					expected.add(new Fact<String>(0, matches * fact.force, fact.time, fact.atoms));
+			}
+
+			TreeSet<Fact<String>> answers = core.getAnswers(false, false, question);
+			assertEquals(expected.size(), answers.size());
+
+			Iterator<Fact<String>> iterator = answers.iterator();
+
+			for (Fact<String> fact : expected) {
+
+				Fact<String> answer = iterator.next();
+				assertEquals(fact, answer);
+				assertEquals(fact.force, answer.force, PRECISION);
+			}
+		}
+	}
+
+	@Test
+	public void testTopAnswers() {
+
+		Random random = new Random(2);
+		Gilgamesh<String> core = createRandom(random);
+
+		for (int i = 0; i < 200; i++) {
+
+			String question[] = createQuestion(random);
+			boolean matchAny = random.nextBoolean();
+			boolean suppress = random.nextBoolean();
+			int size = random.nextInt(12);
+
+			Iterator<Fact<String>> expected = core.getAnswers(matchAny, suppress, question).iterator();
+			List<Fact<String>> answers = core.topAnswers(size, matchAny, suppress, question);
+
+			for (Fact<String> answer : answers) {
+
+				Fact<String> fact = expected.next();
+				assertEquals(fact, answer);
+				assertEquals(fact.force, answer.force, PRECISION);
+				assertEquals(fact.time, answer.time);
+			}
+
+			assertTrue(answers.size() == size || !expected.hasNext());
+		}
+
+		// Facts of the same time and force are one answer to the set: the first one, as on the top.
+		Gilgamesh<String> tied = new Gilgamesh<String>(new HeapFactStore() {
+
+			@Override
+			public long time(long id) {
+
+				return 0;
+			}
+		});
+
+		for (int i = 0; i < 100; i++)
+			tied.fact(1 + random.nextInt(4), "s" + random.nextInt(3), "is", "o" + i);
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+
+		try {
+
+			for (int threshold : new int[] { Integer.MAX_VALUE, 1 }) {
+
+				tied.setPool(pool);
+				tied.setParallelThreshold(threshold);
+
+				for (int size = 1; size < 8; size++) {
+
+					List<Fact<String>> expected = new ArrayList<Fact<String>>(tied.getAnswers(false, false, "s1"));
+					List<Fact<String>> answers = tied.topAnswers(size, false, false, "s1");
+
+					assertEquals(Math.min(size, expected.size()), answers.size());
+					assertEquals(expected.subList(0, answers.size()).toString(), answers.toString());
+				}
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testParallel() {
+
+		Random random = new Random(3);
+		Gilgamesh<String> core = createRandom(random);
+		ForkJoinPool pool = new ForkJoinPool(4);
+
+		try {
+
+			for (int i = 0; i < 200; i++) {
+
+				String question[] = createQuestion(random);
+				boolean matchAny = random.nextBoolean();
+				boolean suppress = random.nextBoolean();
+				int size = 1 + random.nextInt(12);
+
+				core.setParallelThreshold(Integer.MAX_VALUE);
+				List<Fact<String>> expected = new ArrayList<Fact<String>>(core.getAnswers(matchAny, suppress, question));
+				List<Fact<String>> expectedTop = core.topAnswers(size, matchAny, suppress, question);
+
+				core.setPool(pool);
+				core.setParallelThreshold(1);
+				check(expected, new ArrayList<Fact<String>>(core.getAnswers(matchAny, suppress, question)));
+				check(expectedTop, core.topAnswers(size, matchAny, suppress, question));
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	private void check(List<Fact<String>> expected, List<Fact<String>> answers) {
+
+		assertEquals(expected.size(), answers.size());
+
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i), answers.get(i));
+			assertEquals(expected.get(i).force, answers.get(i).force, PRECISION);
+			assertEquals(expected.get(i).time, answers.get(i).time);
+		}
+	}
+
+	@Test
+	public void testColumnar() {
+
+		Gilgamesh<String> heap = createRandom(new Random(4));
+		Gilgamesh<String> columnar = createRandom(new Gilgamesh<String>(new ColumnarFactStore()), new Random(4));
+		Random random = new Random(5);
+
+		checkStores(Arrays.asList(heap.getFacts()), Arrays.asList(columnar.getFacts()));
+
+		for (int i = 0; i < 200; i++) {
+
+			String question[] = createQuestion(random);
+			boolean matchAny = random.nextBoolean();
+			boolean suppress = random.nextBoolean();
+
+			checkStores(new ArrayList<Fact<String>>(heap.getAnswers(matchAny, suppress, question)),
+					new ArrayList<Fact<String>>(columnar.getAnswers(matchAny, suppress, question)));
+		}
+	}
+
+	@Test
+	public void testBulkLoad() {
+
+		Gilgamesh<String> expected = new Gilgamesh<String>();
+		Gilgamesh<String> bulk = new Gilgamesh<String>();
+		Random random = new Random(6);
+		List<String[]> facts = new ArrayList<String[]>();
+
+		// Some batches, with repeated facts and facts repeating an atom.
+		for (int i = 0; i < 20000; i++) {
+
+			String fact[] = new String[random.nextInt(4) + 1];
+
+			for (int v = 0; v < fact.length; v++)
+				fact[v] = "v" + random.nextInt(v == 0 ? 20 : 60);
+
+			facts.add(fact);
+		}
+
+		expected.reinforce("v1", "known");
+		bulk.reinforce("v1", "known");
+
+		for (String fact[] : facts)
+			expected.reinforce(fact);
+
+		long created = bulk.bulkLoad(facts.iterator());
+
+		assertEquals(expected.getFacts().length - 1, created);
+		checkStores(Arrays.asList(expected.getFacts()), Arrays.asList(bulk.getFacts()));
+
+		for (int i = 0; i < 200; i++) {
+
+			String question[] = { "v" + random.nextInt(60), "v" + random.nextInt(60) };
+			boolean matchAny = random.nextBoolean();
+
+			checkStores(new ArrayList<Fact<String>>(expected.getAnswers(matchAny, false, question)),
+					new ArrayList<Fact<String>>(bulk.getAnswers(matchAny, false, question)));
+		}
+	}
+
+	@Test
+	public void testStatistics() throws Exception {
+
+		Gilgamesh<String> memory = new Gilgamesh<String>();
+		Random random = new Random(7);
+		List<String[]> facts = new ArrayList<String[]>();
+
+		for (int i = 0; i < 5000; i++)
+			memory.fact(random.nextInt(3) == 0 ? random.nextDouble() * 10 - 5 : random.nextInt(5) - 1,
+					"s" + random.nextInt(10), "is", "o" + random.nextInt(100));
+
+		checkStatistics(memory);
+
+		for (int i = 0; i < 5000; i++)
+			facts.add(new String[] { "s" + random.nextInt(10), "o" + random.nextInt(200) });
+
+		memory.bulkLoad(facts.iterator());
+		checkStatistics(memory);
+
+		File file = File.createTempFile("gilgamesh_", ".dat");
+
+		assertEquals(true, Gilgamesh.<String>save(file, memory));
+
+		for (Gilgamesh<String> loaded : Arrays.asList(Gilgamesh.<String>load(file), Gilgamesh.<String>open(file))) {
+			assertEquals(memory.statistics().counter, loaded.statistics().counter);
+			assertEquals(memory.statistics().average, loaded.statistics().average, 0.000001);
+			assertEquals(memory.statistics().variance, loaded.statistics().variance, 0.000001);
+
+			loaded.fact(2, "s1", "is", "new");
+			loaded.fact(-1, "s1", "is", "o1");
+			checkStatistics(loaded);
+		}
+
+		// Forces far from 0 but close to each other: their squares must not cancel out.
+		Gilgamesh<String> offset = new Gilgamesh<String>();
+
+		for (int i = 0; i < 5000; i++)
+			offset.fact(1e9 + random.nextInt(5), "s" + i % 10, "is", "o" + i);
+
+		for (int i = 0; i < 1000; i++) {
+			int j = random.nextInt(5000);
+			offset.fact(random.nextInt(3) - 1, "s" + j % 10, "is", "o" + j);
+		}
+
+		checkStatistics(offset);
+		assertTrue(offset.statistics().variance > 0);
+
+		assertEquals(true, Gilgamesh.<String>save(file, offset));
+
+		for (Gilgamesh<String> loaded : Arrays.asList(Gilgamesh.<String>load(file), Gilgamesh.<String>open(file))) {
+			assertEquals(offset.statistics().variance, loaded.statistics().variance, 0.000001);
+
+			loaded.fact(1, "s1", "is", "o1");
+			checkStatistics(loaded);
+		}
+
+		file.delete();
+	}
+
+	@Test
+	public void testMetrics() {
+
+		Gilgamesh<String> memory = new Gilgamesh<String>();
+		MetricsRegistry metrics = new MetricsRegistry();
+
+		memory.setMetrics(metrics);
+		memory.reinforce("dog", "eats", "meat");
+		memory.reinforce("dog", "eats", "meat");
+		memory.reinforce("cat", "eats", "fish");
+		memory.getAnswers(true, false, "dog", "fish");
+		memory.answer("cat", "eats");
+
+		assertEquals(3, metrics.recorder("fact.nanos").getCount());
+		assertEquals(2, ((MetricsRegistry.Counter) metrics.counter("fact.created")).getCount());
+		assertEquals(1, metrics.recorder("answers.nanos").getCount());
+		assertEquals(1, metrics.recorder("answer.nanos").getCount());
+		assertEquals(2, metrics.recorder("answers.candidates").getMax());
+		assertEquals(2, metrics.recorder("postings.length").getMax());
+
+		memory.setMetrics(Metrics.NONE);
+		memory.reinforce("cat", "eats", "fish");
+		assertEquals(3, metrics.recorder("fact.nanos").getCount());
+
+		// Percentiles within the bucket precision.
+		Histogram histogram = new Histogram();
+
+		for (int i = 1; i <= 100000; i++)
+			histogram.record(i);
+
+		assertEquals(100000, histogram.getCount());
+		assertEquals(50000.5, histogram.getMean(), 0.001);
+		assertEquals(100000, histogram.getMax());
+		assertTrue(Math.abs(histogram.getMedian() - 50000) <= 50000 / 8);
+		assertTrue(Math.abs(histogram.getPercentile99() - 99000) <= 99000 / 8);
+
+		for (long value = 0; value < 1L << 40; value = value * 3 + 1)
+			assertTrue(Histogram.highest(Histogram.index(value)) >= value
+					&& Histogram.highest(Histogram.index(value)) - value <= value / 8);
+	}
+
+	@Test
+	public void testAnswer() {
+
+		Random random = new Random(9);
+		Gilgamesh<String> memory = createRandom(random);
+
+		for (int parallel : new int[] { Integer.MAX_VALUE, 2 }) {
+
+			memory.setParallelThreshold(parallel);
+
+			for (int i = 0; i < 1000; i++) {
+
+				// Repeated values and values unknown by the memory as well.
+				String question[] = new String[random.nextInt(3) + 1];
+
+				for (int v = 0; v < question.length; v++)
+					question[v] = random.nextInt(20) == 0 ? "unknown" : VALUES[random.nextInt(VALUES.length)];
+
+				// The exact answer, or else the best partial one, scaled by the quantity of values.
+				List<Fact<String>> expected = memory.topAnswers(1, false, false, question);
+
+				if (expected.isEmpty()) {
+					expected = memory.topAnswers(1, true, false, question);
+
+					if (!expected.isEmpty())
+						expected = Arrays.asList(new Fact<String>(expected.get(0), expected.get(0).force / question.length));
+				}
+
+				Fact<String> answer = memory.answer(question);
+
+				checkStores(expected, answer == null ? new ArrayList<Fact<String>>() : Arrays.asList(answer));
+			}
+		}
+	}
+
+	@Test
+	public void testCache() {
+
+		Gilgamesh<String> expected = new Gilgamesh<String>();
+		Gilgamesh<String> cached = new Gilgamesh<String>();
+		MetricsRegistry metrics = new MetricsRegistry();
+		Random random = new Random(8);
+
+		cached.setMetrics(metrics);
+		cached.setCache(1000);
+
+		for (int i = 0; i < 2000; i++) {
+
+			String values[] = { "s" + random.nextInt(20), "r" + random.nextInt(5), "o" + random.nextInt(50) };
+
+			if (random.nextInt(4) == 0) {
+				double force = random.nextInt(5) - 2;
+
+				expected.fact(force, values);
+				cached.fact(force, values);
+			}
+			else if (random.nextInt(50) == 0) {
+				List<String[]> facts = Arrays.<String[]>asList(values, new String[] { values[0], "bulk" });
+
+				expected.bulkLoad(facts.iterator());
+				cached.bulkLoad(facts.iterator());
+			}
+
+			// Questions in any order, repeated often.
+			String question[] = random.nextBoolean() ? new String[] { values[0], values[2] }
+					: new String[] { "o" + random.nextInt(50), "s" + random.nextInt(20) };
+			boolean matchAny = random.nextBoolean();
+			boolean suppress = random.nextBoolean();
+
+			checkStores(new ArrayList<Fact<String>>(expected.getAnswers(matchAny, suppress, question)),
+					new ArrayList<Fact<String>>(cached.getAnswers(matchAny, suppress, question)));
+			checkStores(expected.topAnswers(3, matchAny, suppress, question), cached.topAnswers(3, matchAny, suppress, question));
+
+			Fact<String> answer = expected.answer(question);
+
+			if (answer != null)
+				checkStores(Arrays.asList(answer), Arrays.asList(cached.answer(question)));
+			else
+				assertEquals(null, cached.answer(question));
+		}
+
+		assertTrue(((MetricsRegistry.Counter) metrics.counter("cache.hits")).getCount() > 0);
+		assertTrue(((MetricsRegistry.Counter) metrics.counter("cache.invalidations")).getCount() > 0);
+		assertTrue(((MetricsRegistry.Counter) metrics.counter("cache.evictions")).getCount() > 0);
+	}
+
+	private void checkStatistics(Gilgamesh<String> memory) {
+
+		Statistics kept = memory.statistics();
+		Statistics computed = memory.statistics(true);
+
+		assertEquals(computed.counter, kept.counter);
+		assertEquals(computed.average, kept.average, 0.000001);
+		assertEquals(computed.variance, kept.variance, 0.000001);
+		assertEquals(computed.sigma, kept.sigma, 0.000001);
+	}
+
+	/**
+	 * Memories built apart have the same facts in the same order, but not the same times.
+	 */
+	private void checkStores(List<Fact<String>> expected, List<Fact<String>> answers) {
+
+		assertEquals(expected.size(), answers.size());
+
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i), answers.get(i));
+			assertEquals(expected.get(i).force, answers.get(i).force, PRECISION);
+		}
+	}
+
+	private Gilgamesh<String> createRandom(Random random) {
+
+		return createRandom(new Gilgamesh<String>(), random);
+	}
+
+	private Gilgamesh<String> createRandom(Gilgamesh<String> core, Random random) {
+
+		for (int i = 0; i < 2000; i++) {
+
+			String fact[] = new String[random.nextInt(4) + 1];
+
+			for (int v = 0; v < fact.length; v++)
+				fact[v] = VALUES[random.nextInt(v == 0 ? 2 : VALUES.length)];
+
+			core.fact(random.nextInt(10) - 3, fact);
+		}
+
+		return core;
+	}
+
+	private String[] createQuestion(Random random) {
+
+		String question[] = new String[random.nextInt(3) + 1];
+
+		for (int v = 0; v < question.length; v++)
+			question[v] = VALUES[random.nextInt(VALUES.length)];
+
+		return question;
+	}
+
 	private void check(boolean check, Set<Fact<String>> answers, String atoms[][], double forces[]) {
 
 		assertTrue(answers != null && answers.size() > 0);
@@ -20,9 +20,13 @@
 package org.gilgamesh.core;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -30,10 +34,16 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -250,4 +260,172 @@ public class GilgameshMultithreadTest {
 
 	}
 
+	@Test
+	public void testThreads4() throws InterruptedException {
+
+		checkTotals(new Gilgamesh<String>());
+	}
+
+	@Test
+	public void testThreads5() throws InterruptedException {
+
+		checkTotals(new Gilgamesh<String>(new ColumnarFactStore()));
+	}
+
+	@Test
+	public void testThreads6() throws Exception {
+
+		File directory = Files.createTempDirectory("gilgamesh_").toFile();
+
+		try (MappedFactStore store = new MappedFactStore(directory)) {
+			checkTotals(new Gilgamesh<String>(store));
+		}
+
+		for (File file : directory.listFiles())
+			file.delete();
+
+		directory.delete();
+	}
+
+	@Test
+	public void testAsync() throws Exception {
+
+		Gilgamesh<String> core = new Gilgamesh<String>();
+		MetricsRegistry metrics = new MetricsRegistry();
+		QueryExecutor executor = new QueryExecutor(2, 4, 1, 1000);
+
+		core.setMetrics(metrics);
+		core.setExecutor(executor);
+		core.setCache(100);
+
+		for (int i = 0; i < 2000; i++)
+			core.fact(i, "s", "o" + i);
+
+		core.fact(1, "x", "y");
+
+		// Same answers as the synchronous methods.
+		assertEquals(core.answer("s", "o7").toString(), core.answerAsync(0, TimeUnit.SECONDS, "s", "o7").get().toString());
+		assertEquals(core.getAnswers(true, false, "s").toString(), core.getAnswersAsync(0, TimeUnit.SECONDS, true, false, "s").get().toString());
+		assertEquals(core.topAnswers(5, true, false, "s").toString(),
+				core.topAnswersAsync(0, TimeUnit.SECONDS, 5, true, false, "s").get().toString());
+		assertNull(core.answerAsync(0, TimeUnit.SECONDS, "unknown").get());
+
+		// A question whose time is over returns the answers scored so far, which are not cached.
+		TreeSet<Fact<String>> all = core.getAnswers(false, false, "s");
+		TreeSet<Fact<String>> partial = core.getAnswersAsync(1, TimeUnit.NANOSECONDS, false, false, "s").get();
+
+		assertTrue(partial.size() < all.size());
+		assertTrue(all.containsAll(partial));
+		assertEquals(all.size(), core.getAnswers(false, false, "s").size());
+		assertEquals(1, ((MetricsRegistry.Counter) metrics.counter("async.expired")).getCount());
+
+		// Heavy questions take one thread only, so light ones go on.
+		CountDownLatch hold = new CountDownLatch(1);
+		CountDownLatch heavy = new CountDownLatch(1);
+
+		assertTrue(executor.submit(1000, () -> await(hold), () -> fail()));
+		assertTrue(executor.submit(1000, () -> heavy.countDown(), () -> fail()));
+		assertEquals(1, core.answerAsync(0, TimeUnit.SECONDS, "x").get(10, TimeUnit.SECONDS).force, PRECISION);
+		assertEquals(1, heavy.getCount());
+
+		// A question cancelled while waiting is never scored.
+		while (executor.getQueued() > 2)
+			Thread.sleep(1);
+
+		assertTrue(executor.submit(0, () -> await(hold), () -> fail()));
+
+		CompletableFuture<TreeSet<Fact<String>>> cancelled = core.getAnswersAsync(0, TimeUnit.SECONDS, true, false, "s");
+
+		assertTrue(cancelled.cancel(true));
+
+		// A full executor refuses questions.
+		try {
+			core.answerAsync(0, TimeUnit.SECONDS, "x").get();
+			fail();
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+
+		hold.countDown();
+		assertTrue(heavy.await(10, TimeUnit.SECONDS));
+
+		while (executor.getQueued() > 0)
+			Thread.sleep(1);
+
+		assertTrue(cancelled.isCancelled());
+		assertEquals(1, ((MetricsRegistry.Counter) metrics.counter("async.cancelled")).getCount());
+		assertEquals(1, ((MetricsRegistry.Counter) metrics.counter("async.rejected")).getCount());
+
+		// Heavy questions still waiting when the executor is shut down are refused, and their places freed.
+		CountDownLatch block = new CountDownLatch(1);
+
+		assertTrue(executor.submit(1000, () -> await(block), () -> fail()));
+
+		CompletableFuture<List<Fact<String>>> waiting = core.topAnswersAsync(0, TimeUnit.SECONDS, 3, false, false, "s", "o9");
+
+		executor.shutdown();
+		block.countDown();
+
+		try {
+			waiting.get(10, TimeUnit.SECONDS);
+			fail();
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+
+		while (executor.getQueued() > 0)
+			Thread.sleep(1);
+
+		assertEquals(2, ((MetricsRegistry.Counter) metrics.counter("async.rejected")).getCount());
+		assertFalse(executor.submit(0, () -> fail(), () -> fail()));
+	}
+
+	private static void await(CountDownLatch latch) {
+
+		try {
+			latch.await();
+		}
+		catch (InterruptedException e) {
+			fail();
+		}
+	}
+
+	private void checkTotals(final Gilgamesh<String> core) throws InterruptedException {
+
+		final int rounds = 2000;
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		List<Callable<Object>> todo = new ArrayList<Callable<Object>>();
+
+		for (int i = 0; i < THREADS; i++)
+			todo.add(Executors.callable(new Runnable() {
+
+				public void run() {
+
+					for (int r = 0; r < rounds; r++) {
+						core.reinforce("" + array[r % 3], "" + array[r % 5]);
+						core.punish("" + array[r % 3], "" + array[r % 5]);
+						core.reinforce("" + array[r % 3], "" + array[r % 5]);
+					}
+				}
+			}));
+
+		executor.invokeAll(todo);
+		executor.shutdown();
+
+		HashMap<String, Integer> expected = new HashMap<String, Integer>();
+
+		for (int r = 0; r < rounds; r++) {
+			String key = "" + array[r % 3] + array[r % 5];
+			expected.put(key, (expected.containsKey(key) ? expected.get(key) : 0) + THREADS);
+		}
+
+		assertEquals(expected.size(), core.getFacts().length);
+
+		for (Fact<String> fact : core.getFacts())
+			assertEquals(expected.get(fact.atoms[0] + fact.atoms[1]), fact.force, PRECISION);
+	}
+
 }